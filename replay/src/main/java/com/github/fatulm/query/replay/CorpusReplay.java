@@ -0,0 +1,396 @@
+package com.github.fatulm.query.replay;
+
+import com.github.fatulm.query.QueryParser;
+import com.github.fatulm.query.QueryParserBuilder;
+import com.github.fatulm.query.QueryParserFlag;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * Replays a file of captured query strings (one query per line, empty lines
+ * are skipped and a leading '?' is removed) through parsers with some flag
+ * configurations at some thread counts. All threads share a single parser,
+ * like a server does. Each thread warms up, then parses its share of operations
+ * starting at a different line of corpus, and each parse call is timed.
+ * <br>
+ * Reports throughput, p50/p99/p99.9 latency and allocation rate as a table,
+ * and as JSON for comparing versions.
+ */
+public class CorpusReplay {
+    private static final String USAGE = "usage: CorpusReplay <corpus file> [options]\n"
+            + "  --config FLAG,FLAG,...   flags of a configuration, 'none' for no flags (repeatable, default none)\n"
+            + "  --threads N|N,M,...      thread counts, a single N means 1, 2, 4, ... up to N (default 1)\n"
+            + "  --operations N           measured parse calls per thread (default 200000)\n"
+            + "  --warm-up N              warm up parse calls per thread (default 50000)\n"
+            + "  --prefix-cache N         enables prefix cache of parsers of N characters\n"
+            + "  --json FILE              writes results as JSON to FILE";
+
+    private final List<String> corpus;
+    private final int operations;
+    private final int warmUp;
+    private final int prefixCache;
+    // results of parse calls, so they are not optimized away
+    private long sink;
+
+    /**
+     * @param corpus      query strings, not empty
+     * @param operations  measured parse calls per thread, should be positive
+     * @param warmUp      warm up parse calls per thread, not negative
+     * @param prefixCache prefix cache size of parsers, 0 for no cache
+     */
+    public CorpusReplay(List<String> corpus, int operations, int warmUp, int prefixCache) {
+        if (corpus.isEmpty())
+            throw new IllegalArgumentException("corpus should not be empty");
+        if (operations <= 0 || warmUp < 0 || prefixCache < 0)
+            throw new IllegalArgumentException("operations should be positive and warm up and cache not negative");
+
+        this.corpus = new ArrayList<>(corpus);
+        this.operations = operations;
+        this.warmUp = warmUp;
+        this.prefixCache = prefixCache;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        List<String> corpus = readCorpus(options.corpus);
+        CorpusReplay replay = new CorpusReplay(corpus, options.operations, options.warmUp, options.prefixCache);
+
+        PrintStream out = System.out;
+        out.printf("corpus: %s (%d queries), %d operations and %d warm up per thread%n",
+                options.corpus, corpus.size(), options.operations, options.warmUp);
+        out.printf("%-60s %7s %14s %9s %9s %9s %10s %10s %8s%n", "flags", "threads", "ops/s",
+                "p50 ns", "p99 ns", "p99.9 ns", "B/op", "MB/s", "errors");
+
+        List<ReplayResult> results = new ArrayList<>();
+        for (EnumSet<QueryParserFlag> flags : options.configs) {
+            for (int threads : options.threads) {
+                ReplayResult result = replay.run(flags, threads);
+                results.add(result);
+                out.printf("%-60s %7d %14.0f %9d %9d %9d %10.1f %10.1f %8d%n", result.flagNames(),
+                        result.getThreads(), result.getThroughput(), result.getP50Nanos(), result.getP99Nanos(),
+                        result.getP999Nanos(), result.getAllocatedBytesPerOperation(), result.getAllocationRate(),
+                        result.getErrors());
+            }
+        }
+
+        if (options.json != null) {
+            Files.write(options.json, replay.toJson(options.corpus.toString(), results)
+                    .getBytes(StandardCharsets.UTF_8));
+            out.println("results are written to " + options.json);
+        }
+    }
+
+    /**
+     * @param path corpus file
+     * @return queries of file
+     * @throws IOException if file can not be read
+     */
+    static List<String> readCorpus(Path path) throws IOException {
+        List<String> corpus = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (line.isEmpty())
+                continue;
+            corpus.add(line.charAt(0) == '?' ? line.substring(1) : line);
+        }
+        if (corpus.isEmpty())
+            throw new IOException("corpus file " + path + " has no queries");
+        return corpus;
+    }
+
+    /**
+     * Replays corpus with a configuration
+     *
+     * @param flags   flags of parser, should be accepted by builder
+     * @param threads number of threads, should be positive
+     * @return result of measured calls
+     * @throws InterruptedException if interrupted while waiting for threads
+     */
+    public ReplayResult run(EnumSet<QueryParserFlag> flags, int threads) throws InterruptedException {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads should be positive");
+
+        QueryParser parser = parser(flags);
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        Worker[] workers = new Worker[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(parser, barrier, i * corpus.size() / threads);
+            workers[i].start();
+        }
+
+        try {
+            barrier.await();
+        } catch (BrokenBarrierException e) {
+            throw new IllegalStateException("replay threads could not start", e);
+        }
+        long start = System.nanoTime();
+        for (Worker worker : workers)
+            worker.join();
+        long wallNanos = System.nanoTime() - start;
+
+        long[] latencies = new long[threads * operations];
+        long errors = 0;
+        long allocatedBytes = 0;
+        for (int i = 0; i < threads; i++) {
+            Worker worker = workers[i];
+            if (worker.failure != null)
+                throw new IllegalStateException("replay thread failed", worker.failure);
+
+            System.arraycopy(worker.latencies, 0, latencies, i * operations, operations);
+            errors += worker.errors;
+            allocatedBytes = allocatedBytes < 0 || worker.allocatedBytes < 0
+                    ? -1 : allocatedBytes + worker.allocatedBytes;
+            sink += worker.sink;
+        }
+
+        return new ReplayResult(flags, threads, latencies.length, errors, wallNanos, latencies, allocatedBytes);
+    }
+
+    private QueryParser parser(EnumSet<QueryParserFlag> flags) {
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(flags.toArray(new QueryParserFlag[0]));
+        if (prefixCache > 0)
+            builder.prefixCache(prefixCache);
+        return builder.build();
+    }
+
+    /**
+     * @return JSON document of results
+     */
+    String toJson(String corpusName, List<ReplayResult> results) {
+        String version = QueryParser.class.getPackage().getImplementationVersion();
+
+        StringBuilder builder = new StringBuilder("{\n");
+        builder.append("  \"parserVersion\": ").append(version == null ? "null" : quote(version)).append(",\n")
+                .append("  \"javaVersion\": ").append(quote(System.getProperty("java.version"))).append(",\n")
+                .append("  \"corpus\": ").append(quote(corpusName)).append(",\n")
+                .append("  \"queries\": ").append(corpus.size()).append(",\n")
+                .append("  \"operationsPerThread\": ").append(operations).append(",\n")
+                .append("  \"warmUpPerThread\": ").append(warmUp).append(",\n")
+                .append("  \"prefixCache\": ").append(prefixCache).append(",\n")
+                .append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            builder.append(i == 0 ? "\n    " : ",\n    ").append(results.get(i).toJson());
+        }
+        builder.append("\n  ]\n}\n");
+        return builder.toString();
+    }
+
+    private static String quote(String str) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '"' || c == '\\')
+                builder.append('\\').append(c);
+            else if (c < 0x20)
+                builder.append(String.format("\\u%04x", (int) c));
+            else
+                builder.append(c);
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * @return allocated bytes of current thread or -1 if JVM does not support it
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return -1;
+
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported())
+            return -1;
+        if (!sunBean.isThreadAllocatedMemoryEnabled())
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private class Worker extends Thread {
+        private final QueryParser parser;
+        private final CyclicBarrier barrier;
+        private final int offset;
+        private final long[] latencies = new long[operations];
+        private long errors;
+        private long allocatedBytes;
+        private long sink;
+        private Throwable failure;
+
+        Worker(QueryParser parser, CyclicBarrier barrier, int offset) {
+            this.parser = parser;
+            this.barrier = barrier;
+            this.offset = offset;
+            setDaemon(true);
+        }
+
+        /**
+         * Waits for other threads even if warm up fails, so main thread is not blocked
+         */
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < warmUp; i++)
+                    parse(corpus.get((offset + i) % corpus.size()));
+                errors = 0;
+            } catch (Throwable e) {
+                failure = e;
+            }
+
+            try {
+                barrier.await();
+            } catch (InterruptedException | BrokenBarrierException e) {
+                if (failure == null)
+                    failure = e;
+            }
+            if (failure != null)
+                return;
+
+            try {
+                long allocatedStart = allocatedBytes();
+                for (int i = 0; i < operations; i++) {
+                    String query = corpus.get((offset + i) % corpus.size());
+                    long start = System.nanoTime();
+                    parse(query);
+                    latencies[i] = System.nanoTime() - start;
+                }
+                long allocatedEnd = allocatedBytes();
+                allocatedBytes = allocatedStart < 0 ? -1 : allocatedEnd - allocatedStart;
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        private void parse(String query) {
+            try {
+                sink += parser.parse(query).size();
+            } catch (IllegalArgumentException e) {
+                errors++;
+            }
+        }
+    }
+
+    /**
+     * Command line options
+     */
+    static class Options {
+        private Path corpus;
+        private final List<EnumSet<QueryParserFlag>> configs = new ArrayList<>();
+        private final List<Integer> threads = new ArrayList<>();
+        private int operations = 200_000;
+        private int warmUp = 50_000;
+        private int prefixCache;
+        private Path json;
+
+        /**
+         * @throws IllegalArgumentException if options are not valid
+         */
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    if (options.corpus != null)
+                        throw new IllegalArgumentException("more than one corpus file is given");
+                    options.corpus = Paths.get(arg);
+                    continue;
+                }
+
+                if (i + 1 == args.length)
+                    throw new IllegalArgumentException("option " + arg + " needs a value");
+                String value = args[++i];
+                switch (arg) {
+                    case "--config":
+                        options.configs.add(flags(value));
+                        break;
+                    case "--threads":
+                        options.threads.addAll(threadCounts(value));
+                        break;
+                    case "--operations":
+                        options.operations = number(arg, value, 1);
+                        break;
+                    case "--warm-up":
+                        options.warmUp = number(arg, value, 0);
+                        break;
+                    case "--prefix-cache":
+                        options.prefixCache = number(arg, value, 1);
+                        break;
+                    case "--json":
+                        options.json = Paths.get(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option " + arg);
+                }
+            }
+
+            if (options.corpus == null)
+                throw new IllegalArgumentException("corpus file is not given");
+            if (options.configs.isEmpty())
+                options.configs.add(EnumSet.noneOf(QueryParserFlag.class));
+            if (options.threads.isEmpty())
+                options.threads.add(1);
+            return options;
+        }
+
+        static EnumSet<QueryParserFlag> flags(String value) {
+            EnumSet<QueryParserFlag> flags = EnumSet.noneOf(QueryParserFlag.class);
+            if (value.equals("none"))
+                return flags;
+
+            for (String name : value.split(",")) {
+                try {
+                    flags.add(QueryParserFlag.valueOf(name.trim()));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("unknown flag " + name.trim());
+                }
+            }
+            return flags;
+        }
+
+        static List<Integer> threadCounts(String value) {
+            List<Integer> counts = new ArrayList<>();
+            if (value.indexOf(',') == -1) {
+                int max = number("--threads", value, 1);
+                for (int count = 1; count < max; count *= 2)
+                    counts.add(count);
+                counts.add(max);
+                return counts;
+            }
+
+            for (String count : value.split(","))
+                counts.add(number("--threads", count.trim(), 1));
+            return counts;
+        }
+
+        private static int number(String option, String value, int min) {
+            int n;
+            try {
+                n = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("option " + option + " needs a number: " + value);
+            }
+            if (n < min)
+                throw new IllegalArgumentException("option " + option + " should be at least " + min + ": " + value);
+            return n;
+        }
+    }
+}
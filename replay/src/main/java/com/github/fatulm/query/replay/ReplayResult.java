@@ -0,0 +1,172 @@
+package com.github.fatulm.query.replay;
+
+import com.github.fatulm.query.QueryParserFlag;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+
+/**
+ * Result of replaying a corpus with a flag configuration and thread count.
+ * Latencies are of single parse calls, allocation is measured per thread
+ * and is -1 when JVM does not support it.
+ */
+public class ReplayResult {
+    private final EnumSet<QueryParserFlag> flags;
+    private final int threads;
+    private final long operations;
+    private final long errors;
+    private final long wallNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+    private final long allocatedBytes;
+
+    /**
+     * @param flags          flags of parser
+     * @param threads        number of threads
+     * @param operations     number of measured parse calls of all threads
+     * @param errors         number of parse calls which threw IllegalArgumentException
+     * @param wallNanos      wall clock time of all threads
+     * @param latencies      latency of each measured call in nanoseconds, it is sorted in place
+     * @param allocatedBytes bytes allocated by measured calls or -1 if unknown
+     */
+    ReplayResult(EnumSet<QueryParserFlag> flags, int threads, long operations, long errors,
+                 long wallNanos, long[] latencies, long allocatedBytes) {
+        this.flags = EnumSet.copyOf(flags);
+        this.threads = threads;
+        this.operations = operations;
+        this.errors = errors;
+        this.wallNanos = wallNanos;
+        this.allocatedBytes = allocatedBytes;
+
+        Arrays.sort(latencies);
+        this.p50Nanos = percentile(latencies, 0.5);
+        this.p99Nanos = percentile(latencies, 0.99);
+        this.p999Nanos = percentile(latencies, 0.999);
+        this.maxNanos = latencies.length == 0 ? 0 : latencies[latencies.length - 1];
+    }
+
+    /**
+     * Nearest rank percentile
+     *
+     * @param sorted     sorted values
+     * @param percentile between 0 and 1
+     * @return value or 0 if there is no value
+     */
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return 0;
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+    }
+
+    public EnumSet<QueryParserFlag> getFlags() {
+        return EnumSet.copyOf(flags);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return parse calls per second of all threads
+     */
+    public double getThroughput() {
+        return wallNanos == 0 ? 0 : operations * 1e9 / wallNanos;
+    }
+
+    /**
+     * @return allocated bytes per parse call or -1 if unknown
+     */
+    public double getAllocatedBytesPerOperation() {
+        if (allocatedBytes < 0 || operations == 0)
+            return -1;
+        return (double) allocatedBytes / operations;
+    }
+
+    /**
+     * @return allocated megabytes (2^20 bytes) per second of all threads or -1 if unknown
+     */
+    public double getAllocationRate() {
+        if (allocatedBytes < 0 || wallNanos == 0)
+            return -1;
+        return allocatedBytes * 1e9 / wallNanos / (1 << 20);
+    }
+
+    /**
+     * @return flags joined with ',' or "none"
+     */
+    String flagNames() {
+        if (flags.isEmpty())
+            return "none";
+
+        StringBuilder builder = new StringBuilder();
+        for (QueryParserFlag flag : flags) {
+            if (builder.length() > 0)
+                builder.append(',');
+            builder.append(flag.name());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return single JSON object, unknown allocation values are null
+     */
+    String toJson() {
+        StringBuilder builder = new StringBuilder("{\"flags\": [");
+        boolean first = true;
+        for (QueryParserFlag flag : flags) {
+            if (!first)
+                builder.append(", ");
+            builder.append('"').append(flag.name()).append('"');
+            first = false;
+        }
+        builder.append("], \"threads\": ").append(threads)
+                .append(", \"operations\": ").append(operations)
+                .append(", \"errors\": ").append(errors)
+                .append(", \"wallNanos\": ").append(wallNanos)
+                .append(", \"throughputOpsPerSecond\": ").append(format(getThroughput()))
+                .append(", \"p50Nanos\": ").append(p50Nanos)
+                .append(", \"p99Nanos\": ").append(p99Nanos)
+                .append(", \"p999Nanos\": ").append(p999Nanos)
+                .append(", \"maxNanos\": ").append(maxNanos)
+                .append(", \"allocatedBytesPerOperation\": ").append(formatOrNull(getAllocatedBytesPerOperation()))
+                .append(", \"allocationMegabytesPerSecond\": ").append(formatOrNull(getAllocationRate()))
+                .append('}');
+        return builder.toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String formatOrNull(double value) {
+        return value < 0 ? "null" : format(value);
+    }
+}
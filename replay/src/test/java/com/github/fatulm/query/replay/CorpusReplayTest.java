@@ -0,0 +1,110 @@
+package com.github.fatulm.query.replay;
+
+import com.github.fatulm.query.QueryParserFlag;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class CorpusReplayTest {
+    private static final List<String> CORPUS = Arrays.asList("a=1&b=2", "q=query%20parser", "bad=1=2", "x");
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whenPercentileThenNearestRank() throws Exception {
+        long[] sorted = new long[1000];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = i + 1;
+
+        assertThat(ReplayResult.percentile(sorted, 0.5), is(500L));
+        assertThat(ReplayResult.percentile(sorted, 0.99), is(990L));
+        assertThat(ReplayResult.percentile(sorted, 0.999), is(999L));
+        assertThat(ReplayResult.percentile(sorted, 0), is(1L));
+        assertThat(ReplayResult.percentile(new long[0], 0.5), is(0L));
+    }
+
+    @Test
+    public void whenThreadsIsSingleNumberThenPowersOfTwo() throws Exception {
+        assertThat(CorpusReplay.Options.threadCounts("1"), contains(1));
+        assertThat(CorpusReplay.Options.threadCounts("6"), contains(1, 2, 4, 6));
+        assertThat(CorpusReplay.Options.threadCounts("8"), contains(1, 2, 4, 8));
+        assertThat(CorpusReplay.Options.threadCounts("3,5"), contains(3, 5));
+    }
+
+    @Test
+    public void whenConfigThenFlags() throws Exception {
+        assertThat(CorpusReplay.Options.flags("none"), is(empty()));
+        assertThat(CorpusReplay.Options.flags("MERGE_VALUES, CONVERT_TO_NULL"),
+                is(EnumSet.of(QueryParserFlag.MERGE_VALUES, QueryParserFlag.CONVERT_TO_NULL)));
+    }
+
+    @Test
+    public void whenUnknownFlagThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("unknown flag NO_SUCH_FLAG");
+        CorpusReplay.Options.flags("NO_SUCH_FLAG");
+    }
+
+    @Test
+    public void whenReadCorpusThenSkipsEmptyLinesAndQuestionMark() throws Exception {
+        Path file = folder.newFile("corpus.txt").toPath();
+        Files.write(file, "?a=1\n\nb=2\r\n".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(CorpusReplay.readCorpus(file), contains("a=1", "b=2"));
+    }
+
+    @Test
+    public void whenRunThenCountsOperationsAndErrors() throws Exception {
+        CorpusReplay replay = new CorpusReplay(CORPUS, 1_000, 100, 0);
+        ReplayResult result = replay.run(EnumSet.noneOf(QueryParserFlag.class), 2);
+
+        assertThat(result.getThreads(), is(2));
+        assertThat(result.getOperations(), is(2_000L));
+        assertThat(result.getErrors(), is(500L));
+        assertThat(result.getThroughput(), greaterThan(0.0));
+        assertThat(result.getP50Nanos(), lessThanOrEqualTo(result.getP99Nanos()));
+        assertThat(result.getP99Nanos(), lessThanOrEqualTo(result.getP999Nanos()));
+        assertThat(result.getP999Nanos(), lessThanOrEqualTo(result.getMaxNanos()));
+    }
+
+    @Test
+    public void whenToJsonThenHasAllFields() throws Exception {
+        CorpusReplay replay = new CorpusReplay(CORPUS, 100, 0, 16);
+        ReplayResult result = replay.run(EnumSet.of(QueryParserFlag.MERGE_VALUES), 1);
+        String json = replay.toJson("dir\\\"corpus\".txt", Collections.singletonList(result));
+
+        assertThat(json, containsString("\"corpus\": \"dir\\\\\\\"corpus\\\".txt\""));
+        assertThat(json, containsString("\"queries\": 4"));
+        assertThat(json, containsString("\"prefixCache\": 16"));
+        assertThat(json, containsString("\"flags\": [\"MERGE_VALUES\"]"));
+        assertThat(json, containsString("\"operations\": 100"));
+        for (String field : Arrays.asList("throughputOpsPerSecond", "p50Nanos", "p99Nanos", "p999Nanos",
+                "allocatedBytesPerOperation", "allocationMegabytesPerSecond"))
+            assertThat(json, containsString("\"" + field + "\": "));
+    }
+}
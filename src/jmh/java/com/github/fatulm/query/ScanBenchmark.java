@@ -0,0 +1,115 @@
+package com.github.fatulm.query;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Java 8 and JDK 17 versions of scanning loops.
+ * Run with jmhBaseline, jmh17 and jmh17Vector tasks of the build,
+ * each one writes its results to build/reports/jmh.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    private byte[] asciiBytes;
+    private String query;
+    private String requestLine;
+    private String longValueQuery;
+    private ByteBuffer buffer;
+    private byte[] equalBytes;
+    private QueryParser parser;
+    private String encodedQuery;
+
+    @Setup
+    public void setUp() {
+        asciiBytes = new byte[size];
+        Arrays.fill(asciiBytes, (byte) 'a');
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < size)
+            builder.append("key").append(builder.length()).append("=value&");
+        query = builder.toString();
+        requestLine = "GET /path?" + query + " HTTP/1.1";
+        longValueQuery = "a=1&token=" + new String(asciiBytes, StandardCharsets.US_ASCII) + "&b=2";
+
+        buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(asciiBytes).clear();
+        equalBytes = asciiBytes.clone();
+
+        parser = QueryParser.builder().build();
+        StringBuilder encoded = new StringBuilder("name=");
+        while (encoded.length() < size)
+            encoded.append("%D0%9F%D1%80%D0%B8%D0%B2%D0%B5%D1%82%20");
+        encodedQuery = encoded.toString();
+    }
+
+    @Benchmark
+    public boolean isAscii() {
+        return ScanUtils.isAscii(asciiBytes, 0, asciiBytes.length);
+    }
+
+    @Benchmark
+    public int countParts() {
+        int count = 0;
+        QueryScanner scanner = new QueryScanner(query, Delimiters.QUERY);
+        while (scanner.next())
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public int countRangeParts() {
+        int count = 0;
+        QueryScanner scanner = new QueryScanner(requestLine, 10, 10 + query.length(), Delimiters.QUERY);
+        while (scanner.next())
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public int countLongValueParts() {
+        int count = 0;
+        QueryScanner scanner = new QueryScanner(longValueQuery, Delimiters.QUERY);
+        while (scanner.next())
+            count++;
+        return count;
+    }
+
+    @Benchmark
+    public boolean rangeEquals() {
+        return ScanUtils.rangeEquals(buffer, 0, size, equalBytes);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> parse() {
+        return parser.parse(query);
+    }
+
+    @Benchmark
+    public Map<String, List<String>> parseEncoded() {
+        return parser.parse(encodedQuery);
+    }
+}
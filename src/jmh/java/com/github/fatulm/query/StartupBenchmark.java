@@ -0,0 +1,106 @@
+package com.github.fatulm.query;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures cold start of the parser: each run starts a fresh JVM which builds
+ * a parser and parses a single query. Classes which are loaded during the first
+ * parse are counted from -verbose:class output between two markers, lambda
+ * classes (made by invokedynamic bootstrap) are counted separately.
+ * <br>
+ * Arguments: [runs] [query]. Run with startupBenchmark task of the build.
+ */
+public class StartupBenchmark {
+    private static final String START_MARKER = "#startup-benchmark-start";
+    private static final String END_MARKER = "#startup-benchmark-end";
+    private static final String DEFAULT_QUERY = "client_id=abc123&api_version=2&q=query%20parser&page=3&page=4";
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String query = args.length > 1 ? args[1] : DEFAULT_QUERY;
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = Arrays.asList(java, "-verbose:class",
+                "-cp", System.getProperty("java.class.path"), Child.class.getName(), query);
+
+        long[] processTimes = new long[runs];
+        long[] parseTimes = new long[runs];
+        int classes = 0;
+        int lambdas = 0;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+
+            boolean inParse = false;
+            classes = 0;
+            lambdas = 0;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.equals(START_MARKER)) {
+                        inParse = true;
+                    } else if (line.startsWith(END_MARKER)) {
+                        inParse = false;
+                        parseTimes[run] = Long.parseLong(line.substring(END_MARKER.length()).trim());
+                    } else if (inParse && isClassLoad(line)) {
+                        classes++;
+                        if (line.contains("$$Lambda"))
+                            lambdas++;
+                    }
+                }
+            }
+
+            if (process.waitFor() != 0)
+                throw new IOException("child JVM failed with exit code " + process.exitValue());
+            processTimes[run] = System.nanoTime() - start;
+        }
+
+        System.out.printf("runs: %d%n", runs);
+        System.out.printf("JVM start to exit (median): %.1f ms%n", median(processTimes) / 1e6);
+        System.out.printf("first build and parse (median): %.2f ms%n", median(parseTimes) / 1e6);
+        System.out.printf("classes loaded by first build and parse: %d%n", classes);
+        System.out.printf("lambda classes loaded by first build and parse: %d%n", lambdas);
+    }
+
+    /**
+     * @return true for class loading lines of Java 8 ("[Loaded ...") and Java 9+ ("[class,load] ...")
+     */
+    private static boolean isClassLoad(String line) {
+        return line.startsWith("[Loaded ") || line.contains("[class,load]");
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    /**
+     * Runs in the fresh JVM, no lambdas are used here so only classes of parser are counted
+     */
+    public static class Child {
+        public static void main(String[] args) {
+            List<String> keys = new ArrayList<>();
+            Collections.addAll(keys, "warm", "up");
+            System.out.println(START_MARKER);
+            System.out.flush();
+
+            long start = System.nanoTime();
+            Map<String, List<String>> map = QueryParser.builder().build().parse(args[0]);
+            long time = System.nanoTime() - start;
+
+            System.out.println(END_MARKER + " " + time);
+            System.out.println(map.size() + keys.size());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.github.fatulm.query;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Map with case insensitive string keys (same as {@link String#equalsIgnoreCase(String)}).
+ * First spelling of a key is kept, iteration is in insertion order.
+ * <br>
+ * Entries are in arrays with their case folded hashes and an open addressing
+ * table points to them, so lookups do not make lower case copies of keys.
+ * Null keys are not allowed and removing is not supported.
+ */
+class CaseInsensitiveMap<V> extends AbstractMap<String, V> {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    // index of entry + 1, 0 for empty slots, at most half full
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int size;
+    private Set<Entry<String, V>> entrySet;
+
+    /**
+     * @return hash of key which is equal for keys that are equal ignoring case
+     */
+    static int foldedHash(String key) {
+        int hash = 0;
+        for (int i = 0; i < key.length(); i++)
+            hash = 31 * hash + fold(key.charAt(i));
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return key with all characters case folded, keys which are equal ignoring case have equal folds
+     */
+    static String fold(String key) {
+        for (int i = 0; i < key.length(); i++) {
+            if (fold(key.charAt(i)) != key.charAt(i)) {
+                char[] chars = key.toCharArray();
+                for (int j = i; j < chars.length; j++)
+                    chars[j] = fold(chars[j]);
+                return new String(chars);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return lower case of upper case of <tt>c</tt>, same as {@link String#equalsIgnoreCase(String)}
+     */
+    static char fold(char c) {
+        if (c < 0x80)
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    private static String requireKey(Object key) {
+        if (key == null)
+            throw new NullPointerException("key can not be null");
+        return key instanceof String ? (String) key : null;
+    }
+
+    /**
+     * @return index of entry or -1
+     */
+    private int indexOf(String key, int hash) {
+        int mask = table.length - 1;
+        for (int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int index = table[slot] - 1;
+            if (hashes[index] == hash && keys[index].equalsIgnoreCase(key))
+                return index;
+        }
+        return -1;
+    }
+
+    private void insert(int index) {
+        int mask = table.length - 1;
+        int slot = hashes[index] & mask;
+        while (table[slot] != 0)
+            slot = (slot + 1) & mask;
+        table[slot] = index + 1;
+    }
+
+    private void grow() {
+        keys = Arrays.copyOf(keys, keys.length * 2);
+        values = Arrays.copyOf(values, values.length * 2);
+        hashes = Arrays.copyOf(hashes, hashes.length * 2);
+
+        table = new int[table.length * 2];
+        for (int i = 0; i < size; i++)
+            insert(i);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        String str = requireKey(key);
+        return str != null && indexOf(str, foldedHash(str)) != -1;
+    }
+
+    @Override
+    public V get(Object key) {
+        String str = requireKey(key);
+        if (str == null)
+            return null;
+
+        int index = indexOf(str, foldedHash(str));
+        return index == -1 ? null : valueAt(index);
+    }
+
+    /**
+     * Keeps spelling of key if an equal key (ignoring case) exists
+     */
+    @Override
+    public V put(String key, V value) {
+        requireKey(key);
+
+        int hash = foldedHash(key);
+        int index = indexOf(key, hash);
+        if (index != -1) {
+            V old = valueAt(index);
+            values[index] = value;
+            return old;
+        }
+
+        if (size == keys.length)
+            grow();
+
+        keys[size] = key;
+        values[size] = value;
+        hashes[size] = hash;
+        insert(size);
+        size++;
+
+        return null;
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, V>>() {
+                @Override
+                public Iterator<Entry<String, V>> iterator() {
+                    return new Iterator<Entry<String, V>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, V> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            return new IndexEntry(next++);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    private class IndexEntry implements Map.Entry<String, V> {
+        private final int index;
+
+        IndexEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return keys[index];
+        }
+
+        @Override
+        public V getValue() {
+            return valueAt(index);
+        }
+
+        @Override
+        public V setValue(V value) {
+            V old = valueAt(index);
+            values[index] = value;
+            return old;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))
+                return false;
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+            return getKey().equals(entry.getKey()) && Objects.equals(getValue(), entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return getKey().hashCode() ^ (getValue() == null ? 0 : getValue().hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
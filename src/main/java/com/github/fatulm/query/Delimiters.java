@@ -0,0 +1,101 @@
+package com.github.fatulm.query;
+
+/**
+ * Separators of a query string: pair separators between key value pairs
+ * and key value separator between key and value of a pair.
+ * Default is '&amp;' between pairs and '=' in pairs.
+ * <br>
+ * When white space around separators is trimmed, keys and values of scanner
+ * do not include white space at their start and end, for example cookie
+ * headers like "a=1; b=2" are parsed with ';' separator.
+ * Instances are immutable.
+ */
+class Delimiters {
+    /**
+     * Characters which can be separators, they are valid unencoded in a query
+     * and are not used in keys as much as '-', '.', '_' and '~'
+     */
+    static final String SEPARATOR_CHARACTERS = "!$&'()*+,/:;=?@";
+
+    static final Delimiters QUERY = new Delimiters("&", '=', false);
+
+    private final String pairSeparators;
+    private final char keyValueSeparator;
+    private final boolean trimWhiteSpace;
+
+    /**
+     * @param pairSeparators    separators of pairs, not empty
+     * @param keyValueSeparator separator of key and value, not one of <tt>pairSeparators</tt>
+     * @param trimWhiteSpace    true if white space around separators is not part of keys and values
+     */
+    Delimiters(String pairSeparators, char keyValueSeparator, boolean trimWhiteSpace) {
+        this.pairSeparators = pairSeparators;
+        this.keyValueSeparator = keyValueSeparator;
+        this.trimWhiteSpace = trimWhiteSpace;
+    }
+
+    /**
+     * @param c character
+     * @return true if <tt>c</tt> is a pair separator
+     */
+    boolean isPairSeparator(char c) {
+        return pairSeparators.indexOf(c) != -1;
+    }
+
+    /**
+     * @param c character
+     * @return true if <tt>c</tt> is a pair separator or key value separator
+     */
+    boolean isSeparator(char c) {
+        return c == keyValueSeparator || isPairSeparator(c);
+    }
+
+    /**
+     * Finds first pair separator in a range, a single separator is found
+     * with {@link ScanUtils#indexOf(CharSequence, char, int, int)}
+     *
+     * @param str   input
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return index of first pair separator in range or -1
+     */
+    int indexOfPairSeparator(CharSequence str, int start, int end) {
+        if (pairSeparators.length() == 1)
+            return ScanUtils.indexOf(str, pairSeparators.charAt(0), start, end);
+
+        for (int i = start; i < end; i++)
+            if (isPairSeparator(str.charAt(i)))
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return all pair separators
+     */
+    String getPairSeparators() {
+        return pairSeparators;
+    }
+
+    /**
+     * @return pair separator which is written between pairs
+     */
+    char getPairSeparator() {
+        return pairSeparators.charAt(0);
+    }
+
+    /**
+     * @return text which is written between pairs, pair separator followed
+     * by a space when white space is trimmed, like "; " of cookie headers
+     */
+    String getCanonicalPairSeparator() {
+        return trimWhiteSpace ? getPairSeparator() + " " : String.valueOf(getPairSeparator());
+    }
+
+    char getKeyValueSeparator() {
+        return keyValueSeparator;
+    }
+
+    boolean isTrimmingWhiteSpace() {
+        return trimWhiteSpace;
+    }
+}
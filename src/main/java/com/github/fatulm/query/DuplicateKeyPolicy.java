@@ -0,0 +1,15 @@
+package com.github.fatulm.query;
+
+/**
+ * This enum tells {@link QueryParser#parseSingle(String)} what to do
+ * when a key has more than one value.
+ * <tt>FIRST_WINS</tt> keeps the first value of the key.
+ * <tt>LAST_WINS</tt> keeps the last value of the key.
+ * <tt>REJECT</tt> throws {@link IllegalArgumentException},
+ * but if <tt>MERGE_VALUES</tt> flag is added equal values are not rejected.
+ */
+public enum DuplicateKeyPolicy {
+    FIRST_WINS,
+    LAST_WINS,
+    REJECT
+}
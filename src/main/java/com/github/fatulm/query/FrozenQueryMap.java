@@ -0,0 +1,378 @@
+package com.github.fatulm.query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Packed immutable form of a parsed query map, for maps which are kept for a long time.
+ * All keys and values are in a single byte array, as Latin-1 if all of their characters
+ * are Latin-1 and as UTF-8 otherwise, and a single int array has their offsets.
+ * So a frozen map is the map and two arrays whatever its size is.
+ * <br>
+ * Strings and lists are not kept, they are made each time they are read.
+ * Lookups scan keys and compare them with bytes without decoding them,
+ * which is fast for the number of keys of queries. Keys can be compared ignoring
+ * case like maps of parsers with CASE_INSENSITIVE_KEYS, see {@link QueryParser#parseFrozen(CharSequence)}.
+ * Order of keys is the order of the frozen map.
+ * <br>
+ * Instances are immutable and safe to share between threads.
+ */
+public class FrozenQueryMap extends AbstractMap<String, List<String>> {
+    private final byte[] bytes;
+    // first size + 1 items: index of string of each key (last is number of strings),
+    // next: end offset of each string in bytes, ~end of previous string for null values
+    private final int[] table;
+    private final int size;
+    private final boolean latin1;
+    private final boolean caseInsensitive;
+    private Set<Entry<String, List<String>>> entrySet;
+
+    private FrozenQueryMap(byte[] bytes, int[] table, int size, boolean latin1, boolean caseInsensitive) {
+        this.bytes = bytes;
+        this.table = table;
+        this.size = size;
+        this.latin1 = latin1;
+        this.caseInsensitive = caseInsensitive;
+    }
+
+    /**
+     * Same as {@link #freeze(Map, boolean)} with case sensitive keys
+     */
+    public static FrozenQueryMap freeze(Map<String, List<String>> map) {
+        return freeze(map, false);
+    }
+
+    /**
+     * Packs a parsed query map, map is copied and not kept
+     *
+     * @param map                 parsed query map
+     * @param caseInsensitiveKeys true if lookups ignore case of keys
+     * @return frozen map with same keys and values
+     * @throws NullPointerException if <tt>map</tt> or a key or a value list is null
+     */
+    public static FrozenQueryMap freeze(Map<String, List<String>> map, boolean caseInsensitiveKeys) {
+        if (map == null)
+            throw new NullPointerException("map should not be null");
+        if (map instanceof FrozenQueryMap && ((FrozenQueryMap) map).caseInsensitive == caseInsensitiveKeys)
+            return (FrozenQueryMap) map;
+
+        int strings = 0;
+        boolean latin1 = true;
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            if (entry.getKey() == null)
+                throw new NullPointerException("key should not be null");
+            if (entry.getValue() == null)
+                throw new NullPointerException("value list should not be null");
+
+            strings += 1 + entry.getValue().size();
+            latin1 = latin1 && isLatin1(entry.getKey());
+            for (String value : entry.getValue())
+                latin1 = latin1 && (value == null || isLatin1(value));
+        }
+
+        int size = map.size();
+        int[] table = new int[size + 1 + strings];
+        byte[][] encoded = latin1 ? null : new byte[strings][];
+        int length = 0;
+        int key = 0;
+        int string = 0;
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            table[key++] = string;
+            length = addString(entry.getKey(), table, size + 1 + string, encoded, string, length);
+            string++;
+            for (String value : entry.getValue()) {
+                length = addString(value, table, size + 1 + string, encoded, string, length);
+                string++;
+            }
+        }
+        table[size] = strings;
+
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        string = 0;
+        for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+            offset = copyString(entry.getKey(), bytes, offset, encoded, string++);
+            for (String value : entry.getValue())
+                offset = copyString(value, bytes, offset, encoded, string++);
+        }
+
+        return new FrozenQueryMap(bytes, table, size, latin1, caseInsensitiveKeys);
+    }
+
+    private static boolean isLatin1(String str) {
+        for (int i = 0; i < str.length(); i++)
+            if (str.charAt(i) > 0xFF)
+                return false;
+        return true;
+    }
+
+    /**
+     * Puts end offset of a string in table
+     *
+     * @return end offset
+     */
+    private static int addString(String str, int[] table, int index, byte[][] encoded, int string, int length) {
+        if (str == null) {
+            table[index] = ~length;
+            return length;
+        }
+
+        if (encoded != null) {
+            encoded[string] = str.getBytes(StandardCharsets.UTF_8);
+            length += encoded[string].length;
+        } else {
+            length += str.length();
+        }
+        table[index] = length;
+        return length;
+    }
+
+    private static int copyString(String str, byte[] bytes, int offset, byte[][] encoded, int string) {
+        if (str == null)
+            return offset;
+
+        if (encoded != null) {
+            System.arraycopy(encoded[string], 0, bytes, offset, encoded[string].length);
+            return offset + encoded[string].length;
+        }
+
+        for (int i = 0; i < str.length(); i++)
+            bytes[offset++] = (byte) str.charAt(i);
+        return offset;
+    }
+
+    private int end(int string) {
+        int end = table[size + 1 + string];
+        return end < 0 ? ~end : end;
+    }
+
+    private int start(int string) {
+        return string == 0 ? 0 : end(string - 1);
+    }
+
+    private String stringAt(int string) {
+        if (table[size + 1 + string] < 0)
+            return null;
+
+        int start = start(string);
+        int end = end(string);
+        return latin1
+                ? new String(bytes, start, end - start, StandardCharsets.ISO_8859_1)
+                : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true if Latin-1 string is equal to <tt>key</tt>
+     */
+    private boolean latin1Equals(int string, String key) {
+        int start = start(string);
+        int end = end(string);
+        if (end - start != key.length())
+            return false;
+        for (int i = start; i < end; i++)
+            if ((bytes[i] & 0xFF) != key.charAt(i - start))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if Latin-1 string is equal to <tt>key</tt> ignoring case
+     * @see CaseInsensitiveMap#fold(char)
+     */
+    private boolean latin1EqualsIgnoreCase(int string, String key) {
+        int start = start(string);
+        int end = end(string);
+        if (end - start != key.length())
+            return false;
+        for (int i = start; i < end; i++) {
+            char c = (char) (bytes[i] & 0xFF);
+            char d = key.charAt(i - start);
+            if (c != d && CaseInsensitiveMap.fold(c) != CaseInsensitiveMap.fold(d))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if UTF-8 string is equal to <tt>key</tt> which is case folded and encoded
+     */
+    private boolean utf8EqualsIgnoreCase(int string, byte[] foldedKey) {
+        int start = start(string);
+        int end = end(string);
+        int j = 0;
+        for (int i = start; i < end; ) {
+            int b = bytes[i] & 0xFF;
+            int n = b < 0x80 ? 1 : b < 0xE0 ? 2 : b < 0xF0 ? 3 : 4;
+            if (n == 1) {
+                if (j >= foldedKey.length || foldedKey[j++] != CaseInsensitiveMap.fold((char) b))
+                    return false;
+                i++;
+                continue;
+            }
+
+            int codePoint = b & (0x7F >> n);
+            for (int k = 1; k < n; k++)
+                codePoint = codePoint << 6 | (bytes[i + k] & 0x3F);
+            i += n;
+
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                // supplementary characters are not folded, same as CaseInsensitiveMap
+                if (j + n > foldedKey.length)
+                    return false;
+                for (int k = 0; k < n; k++)
+                    if (foldedKey[j + k] != bytes[i - n + k])
+                        return false;
+                j += n;
+                continue;
+            }
+
+            j = matchUtf8(foldedKey, j, CaseInsensitiveMap.fold((char) codePoint));
+            if (j == -1)
+                return false;
+        }
+        return j == foldedKey.length;
+    }
+
+    /**
+     * @return index after UTF-8 bytes of <tt>c</tt> in <tt>utf8</tt> at <tt>index</tt> or -1 if they are not there
+     */
+    private static int matchUtf8(byte[] utf8, int index, char c) {
+        if (c < 0x80)
+            return index < utf8.length && utf8[index] == c ? index + 1 : -1;
+        if (c < 0x800)
+            return index + 1 < utf8.length
+                    && utf8[index] == (byte) (0xC0 | (c >> 6))
+                    && utf8[index + 1] == (byte) (0x80 | (c & 0x3F)) ? index + 2 : -1;
+        return index + 2 < utf8.length
+                && utf8[index] == (byte) (0xE0 | (c >> 12))
+                && utf8[index + 1] == (byte) (0x80 | ((c >> 6) & 0x3F))
+                && utf8[index + 2] == (byte) (0x80 | (c & 0x3F)) ? index + 3 : -1;
+    }
+
+    /**
+     * @return true if UTF-8 string is equal to <tt>key</tt> which is encoded
+     */
+    private boolean utf8Equals(int string, byte[] key) {
+        int start = start(string);
+        if (end(string) - start != key.length)
+            return false;
+        for (int i = 0; i < key.length; i++)
+            if (bytes[start + i] != key[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return index of key or -1
+     */
+    private int indexOf(Object key) {
+        if (key == null)
+            throw new NullPointerException("key can not be null");
+        if (!(key instanceof String))
+            return -1;
+
+        String str = (String) key;
+        // lookup key is encoded once, case insensitive UTF-8 keys are compared with its fold
+        byte[] encoded = latin1 ? null
+                : (caseInsensitive ? CaseInsensitiveMap.fold(str) : str).getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < size; i++) {
+            boolean equal;
+            if (latin1)
+                equal = caseInsensitive ? latin1EqualsIgnoreCase(table[i], str) : latin1Equals(table[i], str);
+            else
+                equal = caseInsensitive ? utf8EqualsIgnoreCase(table[i], encoded) : utf8Equals(table[i], encoded);
+
+            if (equal)
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return number of bytes of packed keys and values
+     */
+    public int packedSize() {
+        return bytes.length;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        int index = indexOf(key);
+        return index == -1 ? null : new ValueList(index);
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String, List<String>>>() {
+                @Override
+                public Iterator<Entry<String, List<String>>> iterator() {
+                    return new Iterator<Entry<String, List<String>>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, List<String>> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            int index = next++;
+                            return new SimpleImmutableEntry<>(stringAt(table[index]), new ValueList(index));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Values of a key, each value is decoded when it is read
+     */
+    private class ValueList extends AbstractList<String> {
+        private final int first;
+        private final int size;
+
+        ValueList(int index) {
+            this.first = table[index] + 1;
+            this.size = table[index + 1] - first;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size)
+                throw new IndexOutOfBoundsException("index " + index + " is out of bounds");
+            return stringAt(first + index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package com.github.fatulm.query;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -12,10 +11,11 @@ class MapUtils {
     }
 
     /**
-     * @return unmodifiable map with non null keys
+     * @return empty modifiable map which keeps insertion order
+     * and throws for null keys in get and containsKey
      */
-    public static <K, V> Map<K, V> unmodifiableNonNullKeyMap(Map<K, V> map) {
-        return Collections.unmodifiableMap(new HashMap<K, V>(map) {
+    public static <K, V> Map<K, V> nonNullKeyMap() {
+        return new LinkedHashMap<K, V>() {
             @Override
             public V get(Object key) {
                 return super.get(requireKeyNonNull(key));
@@ -25,7 +25,7 @@ class MapUtils {
             public boolean containsKey(Object key) {
                 return super.containsKey(requireKeyNonNull(key));
             }
-        });
+        };
     }
 
     /**
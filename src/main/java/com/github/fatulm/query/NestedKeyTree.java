@@ -0,0 +1,152 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a tree of nested keys like filter[status][]=open or filter.owner=me.
+ * Inner nodes are maps and leaves are lists of values, pairs with a common
+ * path prefix share the same nodes. A trailing [] appends to the list of
+ * its parent path, so a[]=1&amp;a[]=2 and a=1&amp;a=2 are the same.
+ * With case insensitive keys, parts of paths are compared ignoring case in all nodes.
+ */
+class NestedKeyTree {
+    private final int maxDepth;
+    private final int maxWidth;
+    private final boolean mergeValues;
+    private final boolean caseInsensitive;
+    private final Map<String, Object> root;
+    private final List<String> path = new ArrayList<>();
+
+    /**
+     * @param maxDepth    maximum number of parts of a path
+     * @param maxWidth    maximum number of keys of a map node
+     * @param mergeValues     true if equal values of a leaf should be merged
+     * @param caseInsensitive true if parts of paths are compared ignoring case
+     */
+    NestedKeyTree(int maxDepth, int maxWidth, boolean mergeValues, boolean caseInsensitive) {
+        this.maxDepth = maxDepth;
+        this.maxWidth = maxWidth;
+        this.mergeValues = mergeValues;
+        this.caseInsensitive = caseInsensitive;
+        this.root = newNode();
+    }
+
+    private Map<String, Object> newNode() {
+        return caseInsensitive ? new CaseInsensitiveMap<>() : new LinkedHashMap<>();
+    }
+
+    /**
+     * Splits a key to parts of its path.
+     * Brackets and dots separate parts, a[b].c is a then b then c.
+     * An empty part (from []) can only be the last part, it is dropped.
+     *
+     * @param key  decoded key
+     * @param path output list of parts
+     * @throws IllegalArgumentException if key has bad brackets
+     */
+    private static void splitPath(String key, List<String> path) {
+        path.clear();
+
+        int i = 0;
+        int start = 0;
+        while (i < key.length() && key.charAt(i) != '[' && key.charAt(i) != '.')
+            i++;
+        path.add(key.substring(start, i));
+
+        while (i < key.length()) {
+            char c = key.charAt(i);
+            if (c == '.') {
+                start = ++i;
+                while (i < key.length() && key.charAt(i) != '[' && key.charAt(i) != '.')
+                    i++;
+            } else if (c == '[') {
+                start = ++i;
+                while (i < key.length() && key.charAt(i) != ']')
+                    i++;
+                if (i == key.length())
+                    throw new IllegalArgumentException("query string has bad nested key");
+                i++;
+            } else {
+                throw new IllegalArgumentException("query string has bad nested key");
+            }
+
+            String part = key.substring(start, c == '[' ? i - 1 : i);
+            if (part.isEmpty() && c == '[' && i == key.length())
+                return;
+            if (part.isEmpty())
+                throw new IllegalArgumentException("query string has bad nested key");
+            path.add(part);
+        }
+    }
+
+    /**
+     * Makes a node and its children unmodifiable
+     */
+    @SuppressWarnings("unchecked")
+    private static Object unmodifiable(Object node) {
+        if (node instanceof List)
+            return Collections.unmodifiableList((List<String>) node);
+
+        Map<String, Object> map = (Map<String, Object>) node;
+        for (Map.Entry<String, Object> entry : map.entrySet())
+            entry.setValue(unmodifiable(entry.getValue()));
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Adds a pair to tree
+     *
+     * @param key   decoded key
+     * @param value decoded value, can be null
+     * @throws IllegalArgumentException if key is bad, too deep, too wide or conflicts with another key
+     */
+    @SuppressWarnings("unchecked")
+    void add(String key, String value) {
+        splitPath(key, path);
+        if (path.size() > maxDepth)
+            throw new IllegalArgumentException("query string has too deep nested key");
+
+        Map<String, Object> node = root;
+        for (int i = 0; i < path.size() - 1; i++) {
+            Object child = node.get(path.get(i));
+            if (child == null) {
+                child = newNode();
+                putChild(node, path.get(i), child);
+            } else if (!(child instanceof Map)) {
+                throw new IllegalArgumentException("query string has conflicting nested keys");
+            }
+            node = (Map<String, Object>) child;
+        }
+
+        String last = path.get(path.size() - 1);
+        Object leaf = node.get(last);
+        if (leaf == null) {
+            leaf = new ArrayList<String>();
+            putChild(node, last, leaf);
+        } else if (!(leaf instanceof List)) {
+            throw new IllegalArgumentException("query string has conflicting nested keys");
+        }
+
+        List<String> values = (List<String>) leaf;
+        if (!mergeValues || !values.contains(value))
+            values.add(value);
+    }
+
+    private void putChild(Map<String, Object> node, String key, Object child) {
+        if (node.size() >= maxWidth)
+            throw new IllegalArgumentException("query string has too many nested keys");
+        node.put(key, child);
+    }
+
+    /**
+     * @return unmodifiable tree, this object should not be used after it
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> build() {
+        return (Map<String, Object>) unmodifiable(root);
+    }
+}
@@ -1,7 +1,7 @@
 package com.github.fatulm.query;
 
 import java.util.Map;
-import java.util.function.Function;
+import java.util.Objects;
 
 /**
  * Simple immutable Key-Value holder class
@@ -54,15 +54,29 @@ class Pair<K, V> implements Map.Entry<K, V> {
         return value;
     }
 
-    public static <T, R, K extends T, V> Function<Pair<K, V>, Pair<R, V>> keyMap(Function<T, R> func) {
-        return pair -> new Pair<>(func.apply(pair.getKey()), pair.getValue());
+    /**
+     * Same as {@link Map.Entry#equals(Object)}
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Map.Entry))
+            return false;
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+        return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
     }
 
-    public static <T, R, K, V extends T> Function<Pair<K, V>, Pair<K, R>> valueMap(Function<T, R> func) {
-        return pair -> new Pair<>(pair.getKey(), func.apply(pair.getValue()));
+    /**
+     * Same as {@link Map.Entry#hashCode()}
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(key) ^ Objects.hashCode(value);
     }
 
-    public static <T, R, K extends T, V extends T> Function<Pair<K, V>, Pair<R, R>> keyValueMap(Function<T, R> func) {
-        return pair -> new Pair<>(func.apply(pair.getKey()), func.apply(pair.getValue()));
+    @Override
+    public String toString() {
+        return key + "=" + value;
     }
 }
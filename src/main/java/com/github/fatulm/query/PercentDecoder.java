@@ -0,0 +1,121 @@
+package com.github.fatulm.query;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes percent encoded strings with a charset.
+ * Consecutive encoded bytes are decoded together, so multi byte characters work.
+ * Runs of bytes which are all ASCII are converted directly without the decoder
+ * for charsets which are known to encode ASCII as single bytes (UTF-8, ISO-8859-1
+ * and US-ASCII), other charsets like UTF-16 always use the decoder.
+ * Strings without '%' are returned as they are.
+ * <br>
+ * Buffers and the decoder are reused between calls,
+ * so an instance should be used by a single thread.
+ */
+class PercentDecoder {
+    private final Charset charset;
+    private final CharsetDecoder decoder;
+    private final boolean asciiCompatible;
+    private final StringBuilder builder = new StringBuilder();
+    private byte[] bytes = new byte[64];
+    private ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+    private CharBuffer charBuffer = CharBuffer.allocate(64);
+
+    PercentDecoder(Charset charset) {
+        this.charset = charset;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return value of two hex digits after '%' at <tt>index</tt>
+     * @throws IllegalArgumentException if they are not hex digits
+     */
+    static int hexByte(CharSequence str, int index) {
+        int high = index + 1 < str.length() ? Character.digit(str.charAt(index + 1), 16) : -1;
+        int low = index + 2 < str.length() ? Character.digit(str.charAt(index + 2), 16) : -1;
+        if (high == -1 || low == -1)
+            throw new IllegalArgumentException("query string has bad encoded characters");
+        return high << 4 | low;
+    }
+
+    /**
+     * @param str percent encoded string, not null
+     * @return decoded string
+     * @throws IllegalArgumentException if a '%' is not followed by two hex digits
+     *                                  or bytes are not valid in charset
+     */
+    String decode(String str) {
+        int percent = str.indexOf('%');
+        if (percent == -1)
+            return str;
+
+        builder.setLength(0);
+        builder.append(str, 0, percent);
+
+        int i = percent;
+        while (i < str.length()) {
+            char c = str.charAt(i);
+            if (c != '%') {
+                builder.append(c);
+                i++;
+                continue;
+            }
+
+            int n = 0;
+            while (i < str.length() && str.charAt(i) == '%') {
+                if (n == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, n * 2);
+                    byteBuffer = ByteBuffer.wrap(bytes);
+                }
+
+                int b = hexByte(str, i);
+                bytes[n++] = (byte) b;
+                i += 3;
+            }
+
+            if (asciiCompatible && ScanUtils.isAscii(bytes, 0, n)) {
+                for (int k = 0; k < n; k++)
+                    builder.append((char) bytes[k]);
+            } else {
+                decodeBytes(n);
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Decodes first <tt>n</tt> bytes with charset and appends them to builder
+     */
+    private void decodeBytes(int n) {
+        int maxChars = (int) Math.ceil(n * (double) decoder.maxCharsPerByte());
+        if (charBuffer.capacity() < maxChars)
+            charBuffer = CharBuffer.allocate(maxChars);
+
+        charBuffer.clear();
+        byteBuffer.clear().limit(n);
+        decoder.reset();
+
+        CoderResult result = decoder.decode(byteBuffer, charBuffer, true);
+        if (!result.isError())
+            result = decoder.flush(charBuffer);
+        if (result.isError())
+            throw new IllegalArgumentException("query string has malformed " + charset.name() + " characters");
+
+        charBuffer.flip();
+        builder.append(charBuffer);
+    }
+}
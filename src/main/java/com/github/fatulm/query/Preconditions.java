@@ -2,18 +2,52 @@ package com.github.fatulm.query;
 
 /**
  * Helper class for preconditions
+ * <br>
+ * Characters are checked with a table of ASCII character classes
+ * instead of regexes, so first call does not compile patterns.
  */
 class Preconditions {
+    private static final byte GENERAL = 1;
+    private static final byte BRACKET = 2;
+    private static final byte WHITE_SPACE = 4;
+    // classes of ASCII characters, other characters have no class
+    private static final byte[] CHARACTER_CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < CHARACTER_CLASSES.length; c++) {
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')
+                CHARACTER_CLASSES[c] |= GENERAL;
+            if (TextUtils.isWhiteSpace(c))
+                CHARACTER_CLASSES[c] |= GENERAL | WHITE_SPACE;
+        }
+        for (char c : "_.+*-%/?:@~!$&(),;='".toCharArray())
+            CHARACTER_CLASSES[c] |= GENERAL;
+        CHARACTER_CLASSES['['] |= BRACKET;
+        CHARACTER_CLASSES[']'] |= BRACKET;
+    }
+
+    private static boolean hasClass(char c, int classes) {
+        return c < CHARACTER_CLASSES.length && (CHARACTER_CLASSES[c] & classes) != 0;
+    }
+
     public Preconditions() {
     }
 
     /**
-     * Checks encoded characters for bad structure
+     * Checks encoded characters for bad structure,
+     * each '%' should be followed by two hex digits
      *
+     * @param query query string which is being checked
+     * @param from  start index of query (inclusive)
+     * @param to    end index of query (exclusive)
      * @throws IllegalArgumentException if encoded characters have bad structure
      */
-    public static void checkEncodedCharacters() {
-        // TODO: not complete + not tested
+    public static void checkEncodedCharacters(CharSequence query, int from, int to) {
+        for (int i = TextUtils.indexOf(query, '%', from, to); i != -1; i = TextUtils.indexOf(query, '%', i + 3, to)) {
+            if (to - i < 3)
+                throw new IllegalArgumentException("query string has bad encoded characters");
+            PercentDecoder.hexByte(query, i);
+        }
     }
 
     /**
@@ -24,14 +58,42 @@ class Preconditions {
      * instead use key=value1&amp;key=value2
      *
      * @param query query string which is being checked
+     * @param from  start index of query (inclusive)
+     * @param to    end index of query (exclusive)
+     * @throws IllegalArgumentException when query has invalid structure
+     */
+    public static void checkStructure(CharSequence query, int from, int to) {
+        checkStructure(query, from, to, Delimiters.QUERY);
+    }
+
+    /**
+     * Same as {@link #checkStructure(CharSequence, int, int)} with other separators,
+     * each part can have at most one key value separator
+     *
+     * @param query      query string which is being checked
+     * @param from       start index of query (inclusive)
+     * @param to         end index of query (exclusive)
+     * @param delimiters separators of query
      * @throws IllegalArgumentException when query has invalid structure
      */
-    public static void checkStructure(String query) {
+    public static void checkStructure(CharSequence query, int from, int to, Delimiters delimiters) {
         // for each part: "([^=&]*=?[^=&]*)" (matches empty)
         // structure: "(part)(&(part))*"
+        // checked with a single linear scan, the equivalent regex backtracks
+        // quadratically on long parts and recurses once per '&'
 
-        if (!query.matches("([^=&]*=?[^=&]*)(&([^=&]*=?[^=&]*))*"))
-            throw new IllegalArgumentException("query string has bad structure");
+        char keyValueSeparator = delimiters.getKeyValueSeparator();
+        boolean equalsSeen = false;
+        for (int i = from; i < to; i++) {
+            char c = query.charAt(i);
+            if (delimiters.isPairSeparator(c)) {
+                equalsSeen = false;
+            } else if (c == keyValueSeparator) {
+                if (equalsSeen)
+                    throw new IllegalArgumentException("query string has bad structure");
+                equalsSeen = true;
+            }
+        }
     }
 
     /**
@@ -41,11 +103,30 @@ class Preconditions {
      * This method lets having white space characters
      *
      * @param query query string which is being checked
+     * @param from  start index of query (inclusive)
+     * @param to    end index of query (exclusive)
+     * @throws IllegalArgumentException when query has invalid characters
+     */
+    public static void checkCharactersGeneral(CharSequence query, int from, int to) {
+        checkCharactersGeneral(query, from, to, false);
+    }
+
+    /**
+     * Same as {@link #checkCharactersGeneral(CharSequence, int, int)},
+     * but can also let unencoded '[' and ']' which clients send in nested keys
+     *
+     * @param query            query string which is being checked
+     * @param from             start index of query (inclusive)
+     * @param to               end index of query (exclusive)
+     * @param bracketsAreValid true if '[' and ']' are valid
      * @throws IllegalArgumentException when query has invalid characters
      */
-    public static void checkCharactersGeneral(String query) {
-        if (!query.matches("[\\w\\s.+*\\-%/?:@_~!$&(),;=']*"))
-            throw new IllegalArgumentException("query string has invalid characters");
+    public static void checkCharactersGeneral(CharSequence query, int from, int to, boolean bracketsAreValid) {
+        int classes = bracketsAreValid ? GENERAL | BRACKET : GENERAL;
+        for (int i = from; i < to; i++) {
+            if (!hasClass(query.charAt(i), classes))
+                throw new IllegalArgumentException("query string has invalid characters");
+        }
 
         // TODO: not complete + not tested completely
     }
@@ -55,18 +136,54 @@ class Preconditions {
      * When white space is not valid we use this method
      *
      * @param query query string which is being checked
+     * @param from  start index of query (inclusive)
+     * @param to    end index of query (exclusive)
      * @throws IllegalArgumentException when query has white space characters
      */
-    public static void checkWhiteSpaceCharacters(String query) {
-        if (!query.matches("[^\\s]*"))
-            throw new IllegalArgumentException("query string contains unencoded white space");
+    public static void checkWhiteSpaceCharacters(CharSequence query, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (hasClass(query.charAt(i), WHITE_SPACE))
+                throw new IllegalArgumentException("query string contains unencoded white space");
+        }
+    }
+
+    /**
+     * Same as {@link #checkWhiteSpaceCharacters(CharSequence, int, int)} when separators
+     * do not trim white space, otherwise only checks keys and values after they are trimmed
+     *
+     * @param query      query string which is being checked
+     * @param from       start index of query (inclusive)
+     * @param to         end index of query (exclusive)
+     * @param delimiters separators of query
+     * @throws IllegalArgumentException when keys or values have white space characters
+     */
+    public static void checkWhiteSpaceCharacters(CharSequence query, int from, int to, Delimiters delimiters) {
+        if (!delimiters.isTrimmingWhiteSpace()) {
+            checkWhiteSpaceCharacters(query, from, to);
+            return;
+        }
+
+        QueryScanner scanner = new QueryScanner(query, from, to, delimiters);
+        while (scanner.next()) {
+            checkWhiteSpaceCharacters(query, scanner.keyStart(), scanner.keyEnd());
+            if (scanner.hasValue())
+                checkWhiteSpaceCharacters(query, scanner.valueStart(), scanner.valueEnd());
+        }
     }
 
     /**
      * @throws NullPointerException if query is null
      */
-    public static void checkQueryNonNull(String query) {
+    public static void checkQueryNonNull(CharSequence query) {
         if (query == null)
             throw new NullPointerException("query string should not be null");
     }
+
+    /**
+     * @throws IndexOutOfBoundsException if range is not inside query
+     */
+    public static void checkRange(CharSequence query, int from, int to) {
+        if (from < 0 || to > query.length() || from > to)
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + ") is out of bounds");
+    }
 }
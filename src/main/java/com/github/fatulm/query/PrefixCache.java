@@ -0,0 +1,228 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of parsed pairs of query prefixes, for queries which share leading
+ * parts like client_id=...&amp;api_version=...&amp;q=...
+ * <br>
+ * It is a trie which each edge is a raw part (text between pair separators) and each
+ * node keeps the processed pair of its part. Parsing walks the trie as long as
+ * parts are found and only checks and scans the rest of query, then adds parts
+ * of the rest to the trie. Cached parts are already checked, all preconditions
+ * are local to a part so they are not checked again.
+ * <br>
+ * Retained characters are bounded (approximately under concurrent use), a node
+ * counts its raw part with its separator and the key and value of its pair, so
+ * long parts fill the cache sooner and empty parts are not free. A part which
+ * is larger than the whole bound is never cached. When the cache is full new
+ * parts are not added, and a single thread evicts the least recently used half
+ * of nodes. Children of a node are never used more recently than it, so
+ * removing a node removes its whole subtree.
+ * <br>
+ * Eviction runs on the parsing thread which first finds the cache full: it walks
+ * the trie twice and sorts access times of all nodes, which is O(n log n) for n
+ * cached parts and n is at most the bound. Other threads do not wait for it,
+ * they only skip caching their parts meanwhile.
+ * Safe for concurrent use.
+ */
+class PrefixCache {
+    private final int maxChars;
+    private final Node root = new Node(null, 0);
+    private final AtomicInteger nodeCount = new AtomicInteger();
+    private final AtomicLong retainedChars = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    /**
+     * @param maxChars maximum number of characters retained by cached parts, should be positive
+     */
+    PrefixCache(int maxChars) {
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Makes pairs of a query range like the parser does without cache
+     *
+     * @param parser parser which checks and processes parts, its flags should not change
+     * @param query  sequence which contains query string, not null
+     * @param from   start index of query string (inclusive)
+     * @param to     end index of query string (exclusive)
+     * @return pairs in query order
+     * @throws IllegalArgumentException if uncached rest of query is not valid
+     */
+    List<Pair<String, String>> pairs(QueryParser parser, CharSequence query, int from, int to) {
+        long now = clock.incrementAndGet();
+        List<Pair<String, String>> pairs = new ArrayList<>();
+
+        Node node = root;
+        int start = from;
+        while (true) {
+            int end = parser.getDelimiters().indexOfPairSeparator(query, start, to);
+            if (end == -1)
+                end = to;
+
+            Node child = node.children.get(TextUtils.substring(query, start, end));
+            if (child == null)
+                break;
+
+            child.lastAccess = now;
+            if (child.pair != null)
+                pairs.add(child.pair);
+            node = child;
+
+            if (end == to)
+                return pairs;
+            start = end + 1;
+        }
+
+        parser.checkPreconditions(query, start, to);
+
+        QueryScanner scanner = new QueryScanner(query, start, to, parser.getDelimiters());
+        while (scanner.next()) {
+            Pair<String, String> pair = parser.pairAt(query, scanner);
+            if (pair != null)
+                pairs.add(pair);
+
+            if (node != null)
+                node = insert(node, TextUtils.substring(query, scanner.partStart(), scanner.partEnd()), pair, now);
+        }
+
+        return pairs;
+    }
+
+    /**
+     * @return child node or null if cache is full
+     */
+    private Node insert(Node node, String part, Pair<String, String> pair, long now) {
+        Node child = node.children.get(part);
+        if (child == null) {
+            int chars = retainedChars(part, pair);
+            if (chars > maxChars)
+                return null;
+            if (retainedChars.get() + chars > maxChars) {
+                evict();
+                return null;
+            }
+
+            Node created = new Node(pair, chars);
+            child = node.children.putIfAbsent(part, created);
+            if (child == null) {
+                nodeCount.incrementAndGet();
+                retainedChars.addAndGet(chars);
+                child = created;
+            }
+        }
+
+        child.lastAccess = now;
+        return child;
+    }
+
+    /**
+     * @return characters retained by a node of <tt>part</tt>, at least one for its separator
+     */
+    private static int retainedChars(String part, Pair<String, String> pair) {
+        int chars = part.length() + 1;
+        if (pair != null)
+            chars += pair.getKey().length() + (pair.getValue() == null ? 0 : pair.getValue().length());
+        return chars;
+    }
+
+    /**
+     * Removes least recently used half of nodes (at least one node if cache is not empty),
+     * if another thread is evicting returns immediately
+     */
+    private void evict() {
+        if (!evictionLock.tryLock())
+            return;
+
+        try {
+            long[] accesses = new long[Math.max(1, nodeCount.get())];
+            int n = 0;
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                for (Node child : stack.pop().children.values()) {
+                    if (n == accesses.length)
+                        accesses = Arrays.copyOf(accesses, n * 2);
+                    accesses[n++] = child.lastAccess;
+                    stack.push(child);
+                }
+            }
+
+            if (n == 0)
+                return;
+
+            // oldest half is removed, nodes which are used in the same call have
+            // the same access time, ties at cutoff are removed in walk order
+            Arrays.sort(accesses, 0, n);
+            int half = (n + 1) / 2;
+            long cutoff = accesses[half - 1];
+            int ties = half;
+            for (int i = 0; i < half && accesses[i] < cutoff; i++)
+                ties--;
+
+            int remaining = 0;
+            long remainingChars = 0;
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Iterator<Map.Entry<String, Node>> it = stack.pop().children.entrySet().iterator();
+                while (it.hasNext()) {
+                    Node child = it.next().getValue();
+                    if (child.lastAccess < cutoff) {
+                        it.remove();
+                    } else if (child.lastAccess == cutoff && ties > 0) {
+                        ties--;
+                        it.remove();
+                    } else {
+                        remaining++;
+                        remainingChars += child.chars;
+                        stack.push(child);
+                    }
+                }
+            }
+
+            nodeCount.set(remaining);
+            retainedChars.set(remainingChars);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @return number of cached parts
+     */
+    int size() {
+        return nodeCount.get();
+    }
+
+    /**
+     * @return number of characters retained by cached parts
+     */
+    long retainedChars() {
+        return retainedChars.get();
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        // null if part is not kept (empty key without value)
+        private final Pair<String, String> pair;
+        private final int chars;
+        private volatile long lastAccess;
+
+        Node(Pair<String, String> pair, int chars) {
+            this.pair = pair;
+            this.chars = chars;
+        }
+    }
+}
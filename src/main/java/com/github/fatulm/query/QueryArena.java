@@ -0,0 +1,514 @@
+package com.github.fatulm.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable off-heap storage of parsed query strings.
+ * Decoded keys and values are written as UTF-8 to a direct {@link ByteBuffer}
+ * and each pair is described by four ints (key offset, key length, value offset,
+ * value length) in a second direct buffer. Values which are null have length -1.
+ * <br>
+ * Pairs are kept in the order they appear in query string and are not grouped by key,
+ * so MERGE_VALUES flag of parser has no effect here.
+ * <br>
+ * Queries are scanned in place and percent encoded runs are decoded straight into
+ * the data buffer, so a warmed up {@link #add} does not create strings or pairs.
+ * This works for UTF-8, ISO-8859-1 and US-ASCII parsers without white space flags,
+ * other parsers make strings of each key and value before they are copied.
+ * Readers can compare and copy keys and values without creating objects
+ * (except {@link #getKey} and {@link #getValue}), copies are bulk transfers.
+ * <br>
+ * {@link #reset()} makes arena empty for the next batch without freeing memory.
+ * {@link #release()} drops buffers so their memory can be reclaimed, after that
+ * arena can not be used anymore. This class is not thread safe.
+ */
+public class QueryArena implements AutoCloseable {
+    private static final int INTS_PER_PAIR = 4;
+    private static final int BYTES_PER_PAIR = INTS_PER_PAIR * Integer.BYTES;
+    private static final int NULL_LENGTH = -1;
+
+    private ByteBuffer data;
+    // view of data which bulk copies move over, its position and limit are set for each copy
+    private ByteBuffer reader;
+    private ByteBuffer index;
+    private final int pairCapacity;
+
+    private int dataSize;
+    private int pairCount;
+    // end (exclusive) pair of each query, kept on heap and reused between batches
+    private int[] queryEnds = new int[16];
+    private int queryCount;
+
+    /**
+     * @param dataCapacity maximum bytes of all keys and values
+     * @param pairCapacity maximum number of all pairs
+     * @throws IllegalArgumentException if a capacity is negative
+     */
+    public QueryArena(int dataCapacity, int pairCapacity) {
+        if (dataCapacity < 0 || pairCapacity < 0)
+            throw new IllegalArgumentException("capacity should not be negative");
+
+        this.data = ByteBuffer.allocateDirect(dataCapacity);
+        this.reader = data.duplicate();
+        this.index = ByteBuffer.allocateDirect(pairCapacity * BYTES_PER_PAIR);
+        this.pairCapacity = pairCapacity;
+    }
+
+    /**
+     * Parses query string and appends its pairs.
+     * If arena becomes full nothing of this query is kept.
+     *
+     * @param parser parser which is used for parsing
+     * @param query  query string
+     * @return index of the added query
+     * @throws IllegalStateException    if arena is full or released
+     * @throws IllegalArgumentException if parser does not accept <tt>query</tt>
+     */
+    public int add(QueryParser parser, String query) {
+        checkNotReleased();
+        if (parser == null)
+            throw new NullPointerException("parser should not be null");
+
+        int oldDataSize = dataSize;
+        int oldPairCount = pairCount;
+        try {
+            parser.checkPreconditions(query);
+            Charset charset = parser.getCharset();
+            boolean direct = !parser.containsFlag(QueryParserFlag.IGNORE_WHITE_SPACE)
+                    && !parser.containsFlag(QueryParserFlag.HARD_IGNORE_WHITE_SPACE)
+                    && (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                    || charset.equals(StandardCharsets.US_ASCII));
+
+            QueryScanner scanner = new QueryScanner(query, parser.getDelimiters());
+            while (scanner.next()) {
+                if (direct) {
+                    addPart(parser, query, scanner);
+                } else {
+                    Pair<String, String> pair = parser.pairAt(query, scanner);
+                    if (pair != null)
+                        addPair(pair.getKey(), pair.getValue());
+                }
+            }
+        } catch (RuntimeException e) {
+            dataSize = oldDataSize;
+            pairCount = oldPairCount;
+            throw e;
+        }
+
+        if (queryCount == queryEnds.length)
+            queryEnds = Arrays.copyOf(queryEnds, queryCount * 2);
+        queryEnds[queryCount] = pairCount;
+
+        return queryCount++;
+    }
+
+    /**
+     * Decodes key and value of current part into data and applies flags of parser
+     * which work without white space flags (CONVERT_TO_NULL and dropping empty parts)
+     */
+    private void addPart(QueryParser parser, String query, QueryScanner scanner) {
+        Charset charset = parser.getCharset();
+
+        int keyOffset = dataSize;
+        int keyLength = writeDecoded(query, scanner.keyStart(), scanner.keyEnd(), charset);
+        int valueOffset = dataSize;
+        int valueLength = scanner.hasValue()
+                ? writeDecoded(query, scanner.valueStart(), scanner.valueEnd(), charset) : NULL_LENGTH;
+
+        if (valueLength == 0 && parser.containsFlag(QueryParserFlag.CONVERT_TO_NULL))
+            valueLength = NULL_LENGTH;
+        if (keyLength == 0 && valueLength == NULL_LENGTH)
+            return;
+
+        putPair(keyOffset, keyLength, valueOffset, valueLength);
+    }
+
+    private void addPair(String key, String value) {
+        int keyOffset = dataSize;
+        int keyLength = writeUtf8(key, 0, key.length());
+        int valueOffset = dataSize;
+        int valueLength = value == null ? NULL_LENGTH : writeUtf8(value, 0, value.length());
+
+        putPair(keyOffset, keyLength, valueOffset, valueLength);
+    }
+
+    private void putPair(int keyOffset, int keyLength, int valueOffset, int valueLength) {
+        if (pairCount == pairCapacity)
+            throw new IllegalStateException("arena is full");
+
+        int position = (pairCount++) * BYTES_PER_PAIR;
+        index.putInt(position, keyOffset);
+        index.putInt(position + Integer.BYTES, keyLength);
+        index.putInt(position + 2 * Integer.BYTES, valueOffset);
+        index.putInt(position + 3 * Integer.BYTES, valueLength);
+    }
+
+    /**
+     * Percent decodes a range of query as UTF-8 at the end of data.
+     * Each run of encoded bytes is decoded on its own, same as {@link PercentDecoder}.
+     *
+     * @param charset UTF-8, ISO-8859-1 or US-ASCII
+     * @return number of written bytes
+     * @throws IllegalArgumentException if encoded bytes are not valid in charset
+     */
+    private int writeDecoded(String query, int start, int end, Charset charset) {
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        boolean ascii = charset.equals(StandardCharsets.US_ASCII);
+        int begin = dataSize;
+
+        int i = start;
+        while (i < end) {
+            int percent = ScanUtils.indexOf(query, '%', i, end);
+            if (percent == -1)
+                percent = end;
+            writeUtf8(query, i, percent);
+
+            int runStart = dataSize;
+            for (i = percent; i < end && query.charAt(i) == '%'; i += 3) {
+                int b = PercentDecoder.hexByte(query, i);
+                if (utf8)
+                    put(b);
+                else if (ascii && b >= 0x80)
+                    throw malformed(charset);
+                else
+                    putCodePoint(b);
+            }
+
+            if (utf8)
+                checkUtf8(runStart, dataSize);
+        }
+
+        return dataSize - begin;
+    }
+
+    /**
+     * Checks UTF-8 bytes of data as strictly as decoders of JDK
+     * (no overlong forms, surrogates or code points above U+10FFFF)
+     *
+     * @throws IllegalArgumentException if bytes are not valid
+     */
+    private void checkUtf8(int start, int end) {
+        int i = start;
+        while (i < end) {
+            int b = data.get(i) & 0xFF;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+
+            int n;
+            int codePoint;
+            int min;
+            if (b >= 0xC2 && b <= 0xDF) {
+                n = 1;
+                codePoint = b & 0x1F;
+                min = 0x80;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                n = 2;
+                codePoint = b & 0x0F;
+                min = 0x800;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                n = 3;
+                codePoint = b & 0x07;
+                min = 0x10000;
+            } else {
+                throw malformed(StandardCharsets.UTF_8);
+            }
+
+            if (i + n >= end)
+                throw malformed(StandardCharsets.UTF_8);
+            for (int k = 1; k <= n; k++) {
+                int c = data.get(i + k) & 0xFF;
+                if ((c & 0xC0) != 0x80)
+                    throw malformed(StandardCharsets.UTF_8);
+                codePoint = codePoint << 6 | (c & 0x3F);
+            }
+            if (codePoint < min || codePoint > Character.MAX_CODE_POINT
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE))
+                throw malformed(StandardCharsets.UTF_8);
+
+            i += n + 1;
+        }
+    }
+
+    private static IllegalArgumentException malformed(Charset charset) {
+        return new IllegalArgumentException("query string has malformed " + charset.name() + " characters");
+    }
+
+    /**
+     * Writes a range of a char sequence as UTF-8 at the end of data
+     *
+     * @return number of written bytes
+     */
+    private int writeUtf8(CharSequence str, int start, int end) {
+        int begin = dataSize;
+        for (int i = start; i < end; i++) {
+            int c = str.charAt(i);
+
+            if (Character.isHighSurrogate((char) c) && i + 1 < end
+                    && Character.isLowSurrogate(str.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, str.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?';
+            }
+
+            putCodePoint(c);
+        }
+        return dataSize - begin;
+    }
+
+    private void putCodePoint(int c) {
+        if (c < 0x80) {
+            put(c);
+        } else if (c < 0x800) {
+            put(0xC0 | (c >> 6));
+            put(0x80 | (c & 0x3F));
+        } else if (c < 0x10000) {
+            put(0xE0 | (c >> 12));
+            put(0x80 | ((c >> 6) & 0x3F));
+            put(0x80 | (c & 0x3F));
+        } else {
+            put(0xF0 | (c >> 18));
+            put(0x80 | ((c >> 12) & 0x3F));
+            put(0x80 | ((c >> 6) & 0x3F));
+            put(0x80 | (c & 0x3F));
+        }
+    }
+
+    private void put(int b) {
+        if (dataSize == data.capacity())
+            throw new IllegalStateException("arena is full");
+        data.put(dataSize++, (byte) b);
+    }
+
+    /**
+     * Makes arena empty, memory is kept for reuse
+     */
+    public void reset() {
+        checkNotReleased();
+        dataSize = 0;
+        pairCount = 0;
+        queryCount = 0;
+    }
+
+    /**
+     * Drops buffers so their memory can be reclaimed.
+     * Arena can not be used after release.
+     */
+    public void release() {
+        data = null;
+        reader = null;
+        index = null;
+        queryEnds = null;
+        dataSize = 0;
+        pairCount = 0;
+        queryCount = 0;
+    }
+
+    /**
+     * Same as {@link #release()}
+     */
+    @Override
+    public void close() {
+        release();
+    }
+
+    /**
+     * @return number of added queries
+     */
+    public int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * @return number of bytes used by keys and values
+     */
+    public int getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * @param query query index
+     * @return number of pairs of query
+     */
+    public int getPairCount(int query) {
+        return pairEnd(query) - pairStart(query);
+    }
+
+    /**
+     * @return UTF-8 length of key in bytes
+     */
+    public int getKeyLength(int query, int pair) {
+        return index.getInt(pairPosition(query, pair) + Integer.BYTES);
+    }
+
+    /**
+     * @return UTF-8 length of value in bytes or -1 if value is null
+     */
+    public int getValueLength(int query, int pair) {
+        return index.getInt(pairPosition(query, pair) + 3 * Integer.BYTES);
+    }
+
+    /**
+     * @return true if value is not null
+     */
+    public boolean hasValue(int query, int pair) {
+        return getValueLength(query, pair) != NULL_LENGTH;
+    }
+
+    /**
+     * @param utf8Key UTF-8 bytes of key
+     * @return true if key of pair is equal to <tt>utf8Key</tt>
+     */
+    public boolean keyEquals(int query, int pair, byte[] utf8Key) {
+        int position = pairPosition(query, pair);
+        return ScanUtils.rangeEquals(data, index.getInt(position), index.getInt(position + Integer.BYTES), utf8Key);
+    }
+
+    /**
+     * @param utf8Value UTF-8 bytes of value
+     * @return true if value of pair is not null and is equal to <tt>utf8Value</tt>
+     */
+    public boolean valueEquals(int query, int pair, byte[] utf8Value) {
+        int position = pairPosition(query, pair);
+        int length = index.getInt(position + 3 * Integer.BYTES);
+        return length != NULL_LENGTH
+                && ScanUtils.rangeEquals(data, index.getInt(position + 2 * Integer.BYTES), length, utf8Value);
+    }
+
+    /**
+     * @param utf8Key UTF-8 bytes of key
+     * @return index of first pair of query with key or -1 if there is no such pair
+     */
+    public int findPair(int query, byte[] utf8Key) {
+        int count = getPairCount(query);
+        for (int pair = 0; pair < count; pair++)
+            if (keyEquals(query, pair, utf8Key))
+                return pair;
+        return -1;
+    }
+
+    /**
+     * Copies UTF-8 bytes of key to <tt>dst</tt>
+     *
+     * @return number of copied bytes
+     * @throws IndexOutOfBoundsException if <tt>dst</tt> does not have enough room
+     */
+    public int copyKey(int query, int pair, byte[] dst, int offset) {
+        int position = pairPosition(query, pair);
+        return copy(index.getInt(position), index.getInt(position + Integer.BYTES), dst, offset);
+    }
+
+    /**
+     * Copies UTF-8 bytes of value to <tt>dst</tt>
+     *
+     * @return number of copied bytes or -1 if value is null
+     * @throws IndexOutOfBoundsException if <tt>dst</tt> does not have enough room
+     */
+    public int copyValue(int query, int pair, byte[] dst, int offset) {
+        int position = pairPosition(query, pair);
+        int length = index.getInt(position + 3 * Integer.BYTES);
+        return length == NULL_LENGTH ? NULL_LENGTH : copy(index.getInt(position + 2 * Integer.BYTES), length, dst, offset);
+    }
+
+    /**
+     * Copies UTF-8 bytes of key to <tt>dst</tt> at its position
+     *
+     * @return number of copied bytes
+     * @throws java.nio.BufferOverflowException if <tt>dst</tt> does not have enough room
+     */
+    public int copyKey(int query, int pair, ByteBuffer dst) {
+        int position = pairPosition(query, pair);
+        return copy(index.getInt(position), index.getInt(position + Integer.BYTES), dst);
+    }
+
+    /**
+     * Copies UTF-8 bytes of value to <tt>dst</tt> at its position
+     *
+     * @return number of copied bytes or -1 if value is null
+     * @throws java.nio.BufferOverflowException if <tt>dst</tt> does not have enough room
+     */
+    public int copyValue(int query, int pair, ByteBuffer dst) {
+        int position = pairPosition(query, pair);
+        int length = index.getInt(position + 3 * Integer.BYTES);
+        return length == NULL_LENGTH ? NULL_LENGTH : copy(index.getInt(position + 2 * Integer.BYTES), length, dst);
+    }
+
+    /**
+     * Creates a string, use compare and copy methods to avoid it
+     *
+     * @return key of pair
+     */
+    public String getKey(int query, int pair) {
+        byte[] bytes = new byte[getKeyLength(query, pair)];
+        copyKey(query, pair, bytes, 0);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a string, use compare and copy methods to avoid it
+     *
+     * @return value of pair or null
+     */
+    public String getValue(int query, int pair) {
+        int length = getValueLength(query, pair);
+        if (length == NULL_LENGTH)
+            return null;
+
+        byte[] bytes = new byte[length];
+        copyValue(query, pair, bytes, 0);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int copy(int offset, int length, byte[] dst, int dstOffset) {
+        if (dstOffset < 0 || dstOffset + length > dst.length)
+            throw new IndexOutOfBoundsException("destination is too small");
+        read(offset, length).get(dst, dstOffset, length);
+        return length;
+    }
+
+    private int copy(int offset, int length, ByteBuffer dst) {
+        dst.put(read(offset, length));
+        return length;
+    }
+
+    /**
+     * @return reader over a range of data
+     */
+    private ByteBuffer read(int offset, int length) {
+        reader.clear();
+        reader.position(offset);
+        reader.limit(offset + length);
+        return reader;
+    }
+
+    private int pairStart(int query) {
+        checkQuery(query);
+        return query == 0 ? 0 : queryEnds[query - 1];
+    }
+
+    private int pairEnd(int query) {
+        checkQuery(query);
+        return queryEnds[query];
+    }
+
+    private int pairPosition(int query, int pair) {
+        if (pair < 0 || pair >= getPairCount(query))
+            throw new IndexOutOfBoundsException("pair index out of range: " + pair);
+        return (pairStart(query) + pair) * BYTES_PER_PAIR;
+    }
+
+    private void checkQuery(int query) {
+        checkNotReleased();
+        if (query < 0 || query >= queryCount)
+            throw new IndexOutOfBoundsException("query index out of range: " + query);
+    }
+
+    private void checkNotReleased() {
+        if (data == null)
+            throw new IllegalStateException("arena is released");
+    }
+}
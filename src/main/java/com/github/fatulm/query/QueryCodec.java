@@ -0,0 +1,475 @@
+package com.github.fatulm.query;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact binary format for parsed query maps, so they can be sent between
+ * services without serializing them to text and parsing them again.
+ * <br>
+ * Layout (all lengths and counts are unsigned varints):
+ * <pre>
+ * 'Q' 'M' version
+ * key count
+ * dictionary: for each key: key length, key (UTF-8), length of value block
+ * value blocks: for each key: value count, for each value: length + 1 (0 for null), value (UTF-8)
+ * </pre>
+ * Maps which are read are views over the buffer, the whole structure is
+ * checked once when reading but keys and values are decoded only when they
+ * are accessed. Lookups compare UTF-8 bytes and do not decode keys.
+ */
+public class QueryCodec {
+    private static final byte MAGIC_0 = 'Q';
+    private static final byte MAGIC_1 = 'M';
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 3;
+
+    private QueryCodec() {
+    }
+
+    /**
+     * @param map parsed query map
+     * @return number of bytes of encoded map
+     * @throws NullPointerException if <tt>map</tt> or a key or a value list is null
+     */
+    public static int encodedSize(Map<String, List<String>> map) {
+        return new Encoded(map).size;
+    }
+
+    /**
+     * @param map parsed query map
+     * @return encoded map
+     * @throws NullPointerException if <tt>map</tt> or a key or a value list is null
+     */
+    public static byte[] encode(Map<String, List<String>> map) {
+        Encoded encoded = new Encoded(map);
+        ByteBuffer buffer = ByteBuffer.allocate(encoded.size);
+        encoded.writeTo(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Writes encoded map to <tt>out</tt> at its position
+     *
+     * @param map parsed query map
+     * @param out output
+     * @throws NullPointerException    if an argument or a key or a value list is null
+     * @throws BufferOverflowException if <tt>out</tt> does not have enough room
+     */
+    public static void write(Map<String, List<String>> map, ByteBuffer out) {
+        if (out == null)
+            throw new NullPointerException("out should not be null");
+
+        Encoded encoded = new Encoded(map);
+        if (out.remaining() < encoded.size)
+            throw new BufferOverflowException();
+        encoded.writeTo(out);
+    }
+
+    /**
+     * Writes encoded map to <tt>out</tt> with a single write
+     *
+     * @param map parsed query map
+     * @param out output
+     * @throws NullPointerException if an argument or a key or a value list is null
+     * @throws IOException          if <tt>out</tt> throws
+     */
+    public static void write(Map<String, List<String>> map, OutputStream out) throws IOException {
+        if (out == null)
+            throw new NullPointerException("out should not be null");
+        out.write(encode(map));
+    }
+
+    /**
+     * @param bytes encoded map
+     * @return unmodifiable view of map
+     * @throws NullPointerException     if <tt>bytes</tt> is null
+     * @throws IllegalArgumentException if <tt>bytes</tt> is not an encoded map
+     */
+    public static Map<String, List<String>> read(byte[] bytes) {
+        if (bytes == null)
+            throw new NullPointerException("bytes should not be null");
+        return read(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Reads an encoded map from position of <tt>in</tt>, position is moved to
+     * the end of encoded map so consecutive maps can be read.
+     * Returned map is a view, contents of buffer should not be changed while it is used.
+     *
+     * @param in buffer which contains encoded map
+     * @return unmodifiable view of map
+     * @throws NullPointerException     if <tt>in</tt> is null
+     * @throws IllegalArgumentException if <tt>in</tt> does not contain an encoded map
+     */
+    public static Map<String, List<String>> read(ByteBuffer in) {
+        if (in == null)
+            throw new NullPointerException("in should not be null");
+
+        View view = new View(in.slice());
+        in.position(in.position() + view.end);
+        return view;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Map which is encoded, each string is encoded to UTF-8 once
+     */
+    private static class Encoded {
+        private final byte[][] keys;
+        private final byte[][][] values;
+        private final int[] blockSizes;
+        private final int size;
+
+        Encoded(Map<String, List<String>> map) {
+            if (map == null)
+                throw new NullPointerException("map should not be null");
+
+            keys = new byte[map.size()][];
+            values = new byte[map.size()][][];
+            blockSizes = new int[map.size()];
+
+            int total = HEADER_SIZE + varintSize(map.size());
+            int i = 0;
+            for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+                if (entry.getKey() == null)
+                    throw new NullPointerException("key should not be null");
+                if (entry.getValue() == null)
+                    throw new NullPointerException("value list should not be null");
+
+                keys[i] = utf8(entry.getKey());
+                values[i] = new byte[entry.getValue().size()][];
+
+                int blockSize = varintSize(values[i].length);
+                int j = 0;
+                for (String value : entry.getValue()) {
+                    if (value == null) {
+                        blockSize += varintSize(0);
+                    } else {
+                        values[i][j] = utf8(value);
+                        blockSize += varintSize(values[i][j].length + 1) + values[i][j].length;
+                    }
+                    j++;
+                }
+
+                blockSizes[i] = blockSize;
+                total += varintSize(keys[i].length) + keys[i].length + varintSize(blockSize) + blockSize;
+                i++;
+            }
+
+            size = total;
+        }
+
+        void writeTo(ByteBuffer out) {
+            out.put(MAGIC_0).put(MAGIC_1).put(VERSION);
+            putVarint(out, keys.length);
+
+            for (int i = 0; i < keys.length; i++) {
+                putVarint(out, keys[i].length);
+                out.put(keys[i]);
+                putVarint(out, blockSizes[i]);
+            }
+
+            for (byte[][] block : values) {
+                putVarint(out, block.length);
+                for (byte[] value : block) {
+                    if (value == null) {
+                        putVarint(out, 0);
+                    } else {
+                        putVarint(out, value.length + 1);
+                        out.put(value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lazy view over an encoded map.
+     * Offsets of all keys and values are found when it is created.
+     */
+    private static class View extends AbstractMap<String, List<String>> {
+        private final ByteBuffer buffer;
+        private final int[] keyStarts;
+        private final int[] keyLengths;
+        private final int[] firstValues;
+        private final int[] valueStarts;
+        private final int[] valueLengths;
+        private final String[] keys;
+        private final ValueList[] lists;
+        private final int end;
+        private int position;
+        private Set<Entry<String, List<String>>> entrySet;
+
+        View(ByteBuffer buffer) {
+            this.buffer = buffer;
+
+            if (buffer.remaining() < HEADER_SIZE || buffer.get(0) != MAGIC_0 || buffer.get(1) != MAGIC_1)
+                throw new IllegalArgumentException("buffer does not contain an encoded query map");
+            if (buffer.get(2) != VERSION)
+                throw new IllegalArgumentException("buffer has unsupported version " + buffer.get(2));
+
+            position = HEADER_SIZE;
+            int count = readVarint();
+            if (count > buffer.limit() - position)
+                throw badStructure();
+
+            keyStarts = new int[count];
+            keyLengths = new int[count];
+            firstValues = new int[count + 1];
+            keys = new String[count];
+            lists = new ValueList[count];
+
+            int[] blockSizes = new int[count];
+            long blocksSize = 0;
+            for (int i = 0; i < count; i++) {
+                keyLengths[i] = readVarint();
+                keyStarts[i] = skip(keyLengths[i]);
+                blockSizes[i] = readVarint();
+                blocksSize += blockSizes[i];
+            }
+            if (blocksSize > buffer.limit() - position)
+                throw badStructure();
+
+            int[] starts = new int[Math.max(16, count * 2)];
+            int[] lengths = new int[starts.length];
+            int valueCount = 0;
+            for (int i = 0; i < count; i++) {
+                int blockEnd = position + blockSizes[i];
+                int n = readVarint();
+                if (n > blockEnd - position)
+                    throw badStructure();
+
+                firstValues[i] = valueCount;
+                for (int j = 0; j < n; j++) {
+                    if (valueCount == starts.length) {
+                        starts = Arrays.copyOf(starts, starts.length * 2);
+                        lengths = Arrays.copyOf(lengths, lengths.length * 2);
+                    }
+
+                    int length = readVarint() - 1;
+                    starts[valueCount] = length == -1 ? position : skip(length);
+                    lengths[valueCount] = length;
+                    valueCount++;
+                }
+
+                if (position != blockEnd)
+                    throw badStructure();
+            }
+            firstValues[count] = valueCount;
+
+            valueStarts = starts;
+            valueLengths = lengths;
+            end = position;
+        }
+
+        private static IllegalArgumentException badStructure() {
+            return new IllegalArgumentException("buffer has bad structure");
+        }
+
+        private int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= buffer.limit())
+                    throw badStructure();
+                byte b = buffer.get(position++);
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    if (value < 0)
+                        throw badStructure();
+                    return value;
+                }
+            }
+            throw badStructure();
+        }
+
+        /**
+         * @return start of skipped bytes
+         */
+        private int skip(int length) {
+            if (length < 0 || length > buffer.limit() - position)
+                throw badStructure();
+            int start = position;
+            position += length;
+            return start;
+        }
+
+        private String decode(int start, int length) {
+            if (buffer.hasArray())
+                return new String(buffer.array(), buffer.arrayOffset() + start, length, StandardCharsets.UTF_8);
+
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Compares UTF-8 bytes with a string without encoding it to a new array
+         */
+        private boolean utf8Equals(int start, int length, String str) {
+            int p = start;
+            int end = start + length;
+            for (int i = 0; i < str.length(); i++) {
+                int c = str.charAt(i);
+                if (Character.isHighSurrogate((char) c) && i + 1 < str.length()
+                        && Character.isLowSurrogate(str.charAt(i + 1)))
+                    c = Character.toCodePoint((char) c, str.charAt(++i));
+                else if (Character.isSurrogate((char) c))
+                    c = '?';
+
+                int n = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+                if (end - p < n)
+                    return false;
+                if (n == 1) {
+                    if (buffer.get(p++) != (byte) c)
+                        return false;
+                    continue;
+                }
+
+                int lead = n == 2 ? 0xC0 : n == 3 ? 0xE0 : 0xF0;
+                if (buffer.get(p++) != (byte) (lead | (c >> (6 * (n - 1)))))
+                    return false;
+                for (int k = n - 2; k >= 0; k--)
+                    if (buffer.get(p++) != (byte) (0x80 | ((c >> (6 * k)) & 0x3F)))
+                        return false;
+            }
+            return p == end;
+        }
+
+        private int indexOf(Object key) {
+            if (key == null)
+                throw new NullPointerException("key can not be null");
+            if (!(key instanceof String))
+                return -1;
+
+            String str = (String) key;
+            for (int i = 0; i < keyStarts.length; i++)
+                if (keyLengths[i] >= str.length() && utf8Equals(keyStarts[i], keyLengths[i], str))
+                    return i;
+            return -1;
+        }
+
+        private String keyAt(int i) {
+            if (keys[i] == null)
+                keys[i] = decode(keyStarts[i], keyLengths[i]);
+            return keys[i];
+        }
+
+        private List<String> valuesAt(int i) {
+            if (lists[i] == null)
+                lists[i] = new ValueList(firstValues[i], firstValues[i + 1] - firstValues[i]);
+            return lists[i];
+        }
+
+        @Override
+        public int size() {
+            return keyStarts.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) != -1;
+        }
+
+        @Override
+        public List<String> get(Object key) {
+            int i = indexOf(key);
+            return i == -1 ? null : valuesAt(i);
+        }
+
+        @Override
+        public Set<Entry<String, List<String>>> entrySet() {
+            if (entrySet == null) {
+                entrySet = new AbstractSet<Entry<String, List<String>>>() {
+                    @Override
+                    public Iterator<Entry<String, List<String>>> iterator() {
+                        return new Iterator<Entry<String, List<String>>>() {
+                            private int next;
+
+                            @Override
+                            public boolean hasNext() {
+                                return next < keyStarts.length;
+                            }
+
+                            @Override
+                            public Entry<String, List<String>> next() {
+                                if (!hasNext())
+                                    throw new NoSuchElementException();
+                                int i = next++;
+                                return new SimpleImmutableEntry<>(keyAt(i), valuesAt(i));
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return keyStarts.length;
+                    }
+                };
+            }
+            return entrySet;
+        }
+
+        /**
+         * Values of a key, each value is decoded when it is accessed first
+         */
+        private class ValueList extends AbstractList<String> {
+            private final int first;
+            private final String[] decoded;
+
+            ValueList(int first, int size) {
+                this.first = first;
+                this.decoded = new String[size];
+            }
+
+            @Override
+            public String get(int index) {
+                if (index < 0 || index >= decoded.length)
+                    throw new IndexOutOfBoundsException("index " + index + " is out of bounds");
+
+                int length = valueLengths[first + index];
+                if (length == -1)
+                    return null;
+                if (decoded[index] == null)
+                    decoded[index] = decode(valueStarts[first + index], length);
+                return decoded[index];
+            }
+
+            @Override
+            public int size() {
+                return decoded.length;
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columnar form of a batch of parsed query strings.
+ * Each key of the batch has a column, which is laid out like an Arrow list column:
+ * a presence bitmap for rows, offsets of values of each row,
+ * a validity bitmap for values (null values are not valid)
+ * and values which are dictionary encoded if the column has few distinct values.
+ * <br>
+ * Buffers in Arrow format can be taken from a column: presence and validity bitmaps
+ * are the validity buffers of the list and of its values, offsets are the list
+ * offsets, and UTF-8 data with its offsets is the string buffer of values
+ * (or of dictionary if column is dictionary encoded).
+ * <br>
+ * Queries are parsed directly into columns, no map is built for a row.
+ * With MERGE_VALUES flag, equal values of a row are merged while rows are parsed.
+ * If parser has CASE_INSENSITIVE_KEYS flag, keys which are equal ignoring case
+ * share a column (with the first spelling) and columns are found ignoring case.
+ */
+public class QueryColumns {
+    /**
+     * Default maximum number of distinct values of a dictionary encoded column
+     */
+    public static final int DEFAULT_MAX_DICTIONARY_SIZE = 256;
+
+    private final int rowCount;
+    private final List<String> keys;
+    private final Map<String, Column> columns;
+
+    private QueryColumns(int rowCount, List<String> keys, Map<String, Column> columns) {
+        this.rowCount = rowCount;
+        this.keys = keys;
+        this.columns = columns;
+    }
+
+    /**
+     * Same as {@link #parse(QueryParser, List, int)} with {@link #DEFAULT_MAX_DICTIONARY_SIZE}
+     */
+    public static QueryColumns parse(QueryParser parser, List<String> queries) {
+        return parse(parser, queries, DEFAULT_MAX_DICTIONARY_SIZE);
+    }
+
+    /**
+     * Parses a batch of query strings into columns.
+     * Query at index i of <tt>queries</tt> becomes row i.
+     *
+     * @param parser            parser which is used for parsing
+     * @param queries           query strings
+     * @param maxDictionarySize maximum distinct values of a dictionary encoded column, 0 disables encoding
+     * @return columns of batch
+     * @throws NullPointerException     if an argument or a query is null
+     * @throws IllegalArgumentException if parser does not accept a query or
+     *                                  <tt>maxDictionarySize</tt> is negative
+     */
+    public static QueryColumns parse(QueryParser parser, List<String> queries, int maxDictionarySize) {
+        if (parser == null)
+            throw new NullPointerException("parser should not be null");
+        if (queries == null)
+            throw new NullPointerException("queries should not be null");
+        if (maxDictionarySize < 0)
+            throw new IllegalArgumentException("maxDictionarySize should not be negative");
+
+        int rowCount = queries.size();
+        boolean mergeValues = parser.containsFlag(QueryParserFlag.MERGE_VALUES);
+        boolean caseInsensitive = parser.containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS);
+        Map<String, ColumnBuilder> builders = caseInsensitive ? new CaseInsensitiveMap<>() : new LinkedHashMap<>();
+
+        for (int row = 0; row < rowCount; row++) {
+            int currentRow = row;
+            parser.forEachPair(queries.get(row), (key, value) ->
+                    builders.computeIfAbsent(key, k -> new ColumnBuilder(rowCount, maxDictionarySize))
+                            .add(currentRow, value, mergeValues));
+        }
+
+        Map<String, Column> columns = caseInsensitive ? new CaseInsensitiveMap<>() : new LinkedHashMap<>();
+        for (Map.Entry<String, ColumnBuilder> entry : builders.entrySet())
+            columns.put(entry.getKey(), entry.getValue().build(entry.getKey()));
+
+        return new QueryColumns(rowCount,
+                Collections.unmodifiableList(new ArrayList<>(columns.keySet())),
+                Collections.unmodifiableMap(columns));
+    }
+
+    /**
+     * @return number of rows (query strings)
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return key dictionary, keys in the order they are first seen
+     */
+    public List<String> getKeys() {
+        return keys;
+    }
+
+    /**
+     * @param key key
+     * @return column of key or null if no row has it
+     * @throws NullPointerException if key is null
+     */
+    public Column getColumn(String key) {
+        if (key == null)
+            throw new NullPointerException("key can not be null");
+        return columns.get(key);
+    }
+
+    /**
+     * Column of values of a single key.
+     * Arrays are shared, they should not be modified.
+     */
+    public static class Column {
+        private final String key;
+        private final int rowCount;
+        private final BitSet presence;
+        private final int[] offsets;
+        private final BitSet validity;
+        private final String[] values;
+        private final String[] dictionary;
+        private final int[] codes;
+
+        private Column(String key, int rowCount, BitSet presence, int[] offsets, BitSet validity,
+                       String[] values, String[] dictionary, int[] codes) {
+            this.key = key;
+            this.rowCount = rowCount;
+            this.presence = presence;
+            this.offsets = offsets;
+            this.validity = validity;
+            this.values = values;
+            this.dictionary = dictionary;
+            this.codes = codes;
+        }
+
+        /**
+         * @return key of column
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return bitmap of rows which have this key
+         */
+        public BitSet getPresence() {
+            return (BitSet) presence.clone();
+        }
+
+        /**
+         * @param row row index
+         * @return true if row has this key
+         */
+        public boolean isPresent(int row) {
+            checkRow(row);
+            return presence.get(row);
+        }
+
+        /**
+         * Values of row i are at indexes from offsets[i] (inclusive) to offsets[i + 1] (exclusive).
+         * Length of offsets is row count plus one.
+         *
+         * @return offsets of values of rows
+         */
+        public int[] getOffsets() {
+            return offsets;
+        }
+
+        /**
+         * @return number of values of all rows
+         */
+        public int getValueCount() {
+            return offsets[rowCount];
+        }
+
+        /**
+         * @return bitmap of values which are not null
+         */
+        public BitSet getValidity() {
+            return (BitSet) validity.clone();
+        }
+
+        /**
+         * Arrow validity buffer of the list: bit i (least significant bit first) is
+         * set if row i has this key. Rows without the key have empty offsets range.
+         *
+         * @return bitmap of rows, one bit for each row
+         */
+        public byte[] getPresenceBitmap() {
+            return bitmap(presence, rowCount);
+        }
+
+        /**
+         * Arrow validity buffer of values: bit i (least significant bit first) is set
+         * if value i is not null. Null values have empty range in UTF-8 offsets
+         * and code -1 if column is dictionary encoded.
+         *
+         * @return bitmap of values, one bit for each value
+         */
+        public byte[] getValidityBitmap() {
+            return bitmap(validity, getValueCount());
+        }
+
+        /**
+         * Creates a buffer, Arrow data buffer of a UTF-8 vector.
+         * Strings are values, or dictionary if column is dictionary encoded.
+         *
+         * @return UTF-8 bytes of strings one after another
+         * @see #getUtf8Offsets()
+         */
+        public byte[] getUtf8Data() {
+            String[] strings = dictionary == null ? values : dictionary;
+            int[] utf8Offsets = getUtf8Offsets();
+            byte[] data = new byte[utf8Offsets[strings.length]];
+            for (int i = 0; i < strings.length; i++) {
+                if (strings[i] != null) {
+                    byte[] bytes = strings[i].getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(bytes, 0, data, utf8Offsets[i], bytes.length);
+                }
+            }
+            return data;
+        }
+
+        /**
+         * Creates an array, Arrow offsets buffer of a UTF-8 vector.
+         * Bytes of string i are from offsets[i] (inclusive) to offsets[i + 1] (exclusive),
+         * null strings are empty.
+         *
+         * @return offsets of strings in UTF-8 data, length is number of strings plus one
+         * @see #getUtf8Data()
+         */
+        public int[] getUtf8Offsets() {
+            String[] strings = dictionary == null ? values : dictionary;
+            int[] utf8Offsets = new int[strings.length + 1];
+            for (int i = 0; i < strings.length; i++)
+                utf8Offsets[i + 1] = utf8Offsets[i] + (strings[i] == null ? 0 : utf8Length(strings[i]));
+            return utf8Offsets;
+        }
+
+        private static byte[] bitmap(BitSet bits, int length) {
+            byte[] bitmap = new byte[(length + 7) / 8];
+            byte[] set = bits.toByteArray();
+            System.arraycopy(set, 0, bitmap, 0, Math.min(set.length, bitmap.length));
+            return bitmap;
+        }
+
+        private static int utf8Length(String str) {
+            int length = 0;
+            for (int i = 0; i < str.length(); i++) {
+                char c = str.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < str.length()
+                        && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+
+        /**
+         * @return true if values are stored as codes of a dictionary
+         */
+        public boolean isDictionaryEncoded() {
+            return dictionary != null;
+        }
+
+        /**
+         * @return dictionary of distinct non null values or null if column is not dictionary encoded
+         */
+        public String[] getDictionary() {
+            return dictionary;
+        }
+
+        /**
+         * @return dictionary code of each value (-1 for null) or null if column is not dictionary encoded
+         */
+        public int[] getCodes() {
+            return codes;
+        }
+
+        /**
+         * @return values (null for null values) or null if column is dictionary encoded
+         */
+        public String[] getValues() {
+            return values;
+        }
+
+        /**
+         * @param index value index
+         * @return value at index, can be null
+         */
+        public String getValue(int index) {
+            if (index < 0 || index >= getValueCount())
+                throw new IndexOutOfBoundsException("value index out of range: " + index);
+
+            if (dictionary == null)
+                return values[index];
+            return codes[index] < 0 ? null : dictionary[codes[index]];
+        }
+
+        /**
+         * Creates a list, use offsets and values to avoid it.
+         *
+         * @param row row index
+         * @return values of row or null if row does not have this key
+         */
+        public List<String> getValues(int row) {
+            if (!isPresent(row))
+                return null;
+
+            List<String> list = new ArrayList<>(offsets[row + 1] - offsets[row]);
+            for (int i = offsets[row]; i < offsets[row + 1]; i++)
+                list.add(getValue(i));
+            return list;
+        }
+
+        private void checkRow(int row) {
+            if (row < 0 || row >= rowCount)
+                throw new IndexOutOfBoundsException("row index out of range: " + row);
+        }
+    }
+
+    /**
+     * Builds a column while rows are parsed in order
+     */
+    private static class ColumnBuilder {
+        private final int rowCount;
+        private final int maxDictionarySize;
+        private final BitSet presence = new BitSet();
+        private final BitSet validity = new BitSet();
+        private final int[] offsets;
+        private final List<String> values = new ArrayList<>();
+        private Map<String, Integer> dictionary = new HashMap<>();
+        private int lastRow = -1;
+        // values of last row, only made when it has a second value and values are merged
+        private Set<String> rowValues;
+
+        ColumnBuilder(int rowCount, int maxDictionarySize) {
+            this.rowCount = rowCount;
+            this.maxDictionarySize = maxDictionarySize;
+            this.offsets = new int[rowCount + 1];
+        }
+
+        void add(int row, String value, boolean mergeValues) {
+            if (row != lastRow) {
+                fillOffsets(row);
+                presence.set(row);
+                rowValues = null;
+            } else if (mergeValues) {
+                if (rowValues == null) {
+                    rowValues = new HashSet<>();
+                    rowValues.addAll(values.subList(offsets[row], values.size()));
+                }
+                if (!rowValues.add(value))
+                    return;
+            }
+
+            if (value != null) {
+                validity.set(values.size());
+                if (dictionary != null && !dictionary.containsKey(value)) {
+                    if (dictionary.size() < maxDictionarySize)
+                        dictionary.put(value, dictionary.size());
+                    else
+                        dictionary = null;
+                }
+            }
+            values.add(value);
+        }
+
+        /**
+         * Sets start offset of rows up to <tt>row</tt> (inclusive)
+         */
+        private void fillOffsets(int row) {
+            for (int r = lastRow + 1; r <= row; r++)
+                offsets[r] = values.size();
+            lastRow = row;
+        }
+
+        Column build(String key) {
+            fillOffsets(rowCount);
+
+            String[] array = values.toArray(new String[0]);
+            if (dictionary == null || maxDictionarySize == 0)
+                return new Column(key, rowCount, presence, offsets, validity, array, null, null);
+
+            String[] dictionaryValues = new String[dictionary.size()];
+            for (Map.Entry<String, Integer> entry : dictionary.entrySet())
+                dictionaryValues[entry.getValue()] = entry.getKey();
+
+            int[] codes = new int[array.length];
+            Arrays.fill(codes, -1);
+            for (int i = 0; i < array.length; i++)
+                if (array[i] != null)
+                    codes[i] = dictionary.get(array[i]);
+
+            return new Column(key, rowCount, presence, offsets, validity, null, dictionaryValues, codes);
+        }
+    }
+}
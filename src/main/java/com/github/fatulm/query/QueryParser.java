@@ -1,19 +1,22 @@
 package com.github.fatulm.query;
 
 import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import static com.github.fatulm.query.LambdaUtils.elvis;
-import static com.github.fatulm.query.LambdaUtils.mapIf;
-import static com.github.fatulm.query.MapUtils.unmodifiableNonNullKeyMap;
+import static com.github.fatulm.query.MapUtils.nonNullKeyMap;
 import static com.github.fatulm.query.Preconditions.*;
-import static com.github.fatulm.query.TextUtils.stringSplit;
-import static java.util.stream.Collectors.*;
+import static com.github.fatulm.query.TextUtils.splitChunks;
+import static com.github.fatulm.query.TextUtils.substring;
 
 
 /**
@@ -22,254 +25,520 @@ import static java.util.stream.Collectors.*;
  * <br>
  * Order of the keys are not guarantied if you include some of the flags
  * and even some times which query string includes encoded characters.
+ * Order of the values of each key is the order they appear in query string,
+ * also when the query is parsed in parallel.
+ * <br>
+ * Pairs are separated by '&amp;' and key and value by '=', other separators
+ * (for cookie headers or matrix parameters) can be set in builder.
+ * <br>
+ * Thread safety: a parser is an immutable snapshot of its builder, all fields
+ * are final and changing the builder later does not change built parsers.
+ * A single parser can be shared by any number of threads without synchronization.
+ * Mutable state which parser uses is safe too: prefix cache is a concurrent trie,
+ * percent decoders are pooled per thread and sampler is lock-free.
+ * Returned maps and lists are not shared between calls.
  */
 public class QueryParser {
-    static private final String SPACE = " ";
-
-    private EnumSet<QueryParserFlag> flags;
+    static private final int MIN_CHUNK_SIZE = 16 * 1024;
+    static private final int CHUNKS_PER_THREAD = 4;
+
+    private final EnumSet<QueryParserFlag> flags;
+    private final int parallelThreshold;
+    private final DuplicateKeyPolicy duplicateKeyPolicy;
+    private final int maxNestedDepth;
+    private final int maxNestedWidth;
+    private final PrefixCache prefixCache;
+    private final Charset charset;
+    private final ThreadLocal<PercentDecoder> decoders;
+    private final QueryParserSampler sampler;
+    private final Delimiters delimiters;
 
     /**
-     * Called from builder
+     * Called from builder, <tt>flags</tt> should be a copy which is not changed later
      */
-    QueryParser(EnumSet<QueryParserFlag> flags) {
+    QueryParser(EnumSet<QueryParserFlag> flags, int parallelThreshold, DuplicateKeyPolicy duplicateKeyPolicy,
+                int maxNestedDepth, int maxNestedWidth, int prefixCacheSize, Charset charset,
+                QueryParserSampler sampler, Delimiters delimiters) {
         this.flags = flags;
+        this.parallelThreshold = parallelThreshold;
+        this.duplicateKeyPolicy = duplicateKeyPolicy;
+        this.maxNestedDepth = maxNestedDepth;
+        this.maxNestedWidth = maxNestedWidth;
+        this.prefixCache = prefixCacheSize == 0 ? null : new PrefixCache(prefixCacheSize);
+        this.charset = charset;
+        this.sampler = sampler;
+        this.delimiters = delimiters;
+        this.decoders = new ThreadLocal<PercentDecoder>() {
+            @Override
+            protected PercentDecoder initialValue() {
+                return new PercentDecoder(charset);
+            }
+        };
     }
 
     /**
-     * Ignores white space for a list of strings.
-     * Returns null for null.
+     * Ignores white space for a string.
      *
-     * @param values list of strings
-     * @return ignored list
+     * @param str input string should not be {@code null}
+     * @return ignored string
      */
-    private static List<String> ignoreWhiteSpace(List<String> values) {
-        return values.stream()
-                .map(elvis(QueryParser::ignoreWhiteSpace))
-                .collect(toList());
+    private static String ignoreWhiteSpace(String str) {
+        return TextUtils.collapseWhiteSpace(str);
     }
 
     /**
-     * Ignores white space for a string.
+     * Merges equal values for a list of value strings
      *
-     * @param str input string should not be {@code null}
-     * @return ignored string
+     * @param values input value list
+     * @return output value list
      */
-    private static String ignoreWhiteSpace(String str) {
-        return str.replaceAll("\\s+", SPACE).trim();
+    private static List<String> mergeValues(List<String> values) {
+        return new ArrayList<>(new LinkedHashSet<>(values));
     }
 
     /**
-     * Ignores white space for a string.
-     * And also trims keys and values
+     * Converts encoded characters to unencoded characters with charset of parser.
+     * Each thread uses its own pooled decoder.
+     * Input can not be {@code null}.
      *
-     * @param str input string should not be {@code null}
-     * @return ignored string
+     * @param str input string
+     * @return output string
      */
-    private static String ignoreWhiteSpaceEx(String str) {
-        return str.replaceAll("\\s+", SPACE)
-                .replaceAll("\\s*=\\s*", "=")
-                .replaceAll("\\s*&\\s*", "&")
-                .trim();
+    String convertEncodedCharacters(String str) {
+        if (str.indexOf('%') == -1)
+            return str;
+        return decoders.get().decode(str);
     }
 
+    /**
+     * Merges equal values.
+     * Also note that: (null is equal to null) but ("" is not equal to null)
+     */
+    private static void mergeValues(Map<String, List<String>> map) {
+        for (Map.Entry<String, List<String>> entry : map.entrySet())
+            entry.setValue(mergeValues(entry.getValue()));
+    }
 
     /**
-     * Merges equal values for a list of value strings
+     * Empty string to null pairs are removed
+     * (for example in parse("") we have one)
      *
-     * @param values input value list
-     * @return output value list
+     * @param pair key value pair
+     * @return true if pair has empty key and null value
      */
-    private static List<String> mergeValues(List<String> values) {
-        return values.stream()
-                .distinct()
-                .collect(toList());
+    static boolean isEmptyKeyToNull(Pair<String, String> pair) {
+        return pair.getKey().isEmpty() && pair.getValue() == null;
+    }
+
+    public static QueryParserBuilder builder() {
+        return new QueryParserBuilder();
     }
 
     /**
-     * Converts empty values to null for a value list
+     * Parses query strings.
+     * You can get query String from URI by {@link URI#getQuery()}.
+     * Also note that your string should not include "?"
+     * <br>
+     * If a parallel threshold is set in builder and query is not shorter
+     * than it, query is split into chunks at '&amp;' and chunks are parsed
+     * on {@link ForkJoinPool#commonPool()}.
      *
-     * @param values input value list
-     * @return output value list
+     * @param query query string
+     * @return map of queries
      */
-    private static List<String> convertToNull(List<String> values) {
-        return values.stream()
-                .map(TextUtils::convertEmptyStringToNull)
-                .collect(toList());
+    public Map<String, List<String>> parse(String query) {
+        checkQueryNonNull(query);
+        return parse(query, 0, query.length());
     }
 
-
     /**
-     * Converts encoded characters to unencoded characters.
-     * Input can not be {@code null}.
+     * Parses a range of a char sequence, for example the query of a request
+     * target in a buffer. Sequence is not copied, any {@link CharSequence}
+     * like {@link StringBuilder} or {@link java.nio.CharBuffer} can be used.
+     * Range should not include "?".
      *
-     * @param str input string
-     * @return output string
+     * @param query char sequence which contains query string
+     * @param from  start index of query string (inclusive)
+     * @param to    end index of query string (exclusive)
+     * @return map of queries
+     * @throws IndexOutOfBoundsException if range is not inside <tt>query</tt>
+     * @see #parse(String)
      */
-    private static String convertEncodedCharacters(String str) {
-        // TODO: not complete + not tested completely
+    public Map<String, List<String>> parse(CharSequence query, int from, int to) {
+        checkQueryNonNull(query);
+        checkRange(query, from, to);
+        if (sampler == null)
+            return parseRange(query, from, to);
+
+        long start = System.nanoTime();
+        try {
+            Map<String, List<String>> map = parseRange(query, from, to);
+            sampler.record(this, query, from, to, System.nanoTime() - start, null);
+            return map;
+        } catch (RuntimeException e) {
+            sampler.record(this, query, from, to, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
 
-        return str.replace("%20", SPACE);
+    /**
+     * Same as {@link #parse(CharSequence, int, int)} without sampler and argument checks
+     */
+    private Map<String, List<String>> parseRange(CharSequence query, int from, int to) {
+        return group(pairs(query, from, to));
     }
 
     /**
-     * Converts encoded characters to unencoded characters for a
-     * list of value strings.
+     * Groups values of pairs by key and applies MERGE_VALUES
      *
-     * @param values input values list
-     * @return output values list
+     * @param pairs processed pairs in query order
+     * @return unmodifiable map of queries
      */
-    private static List<String> convertEncodedCharacters(List<String> values) {
-        return values.stream()
-                .map(elvis(QueryParser::convertEncodedCharacters))
-                .collect(toList());
+    Map<String, List<String>> group(List<Pair<String, String>> pairs) {
+        boolean caseInsensitive = containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS);
+        Map<String, List<String>> map = caseInsensitive ? new CaseInsensitiveMap<>() : nonNullKeyMap();
+        for (Pair<String, String> pair : pairs) {
+            List<String> values = map.get(pair.getKey());
+            if (values == null) {
+                values = new ArrayList<>();
+                map.put(pair.getKey(), values);
+            }
+            values.add(pair.getValue());
+        }
+
+        if (containsFlag(QueryParserFlag.MERGE_VALUES))
+            mergeValues(map);
+
+        return Collections.unmodifiableMap(map);
     }
 
     /**
-     * Removes keys which have empty value collection
+     * Parses query string of a URI or request target like /path?query#fragment.
+     * Query string is after the first "?" and before "#".
+     * If there is no "?" (before "#") result is empty.
      *
-     * @param map input map
-     * @return processed map
+     * @param uri URI or request target
+     * @return map of queries
+     * @see #parse(CharSequence, int, int)
      */
-    private static Map<String, List<String>> removeKeysWithEmptyValue(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .filter(e -> !e.getValue().isEmpty())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    public Map<String, List<String>> parseFromUri(CharSequence uri) {
+        if (uri == null)
+            throw new NullPointerException("uri should not be null");
+
+        int end = TextUtils.indexOf(uri, '#', 0, uri.length());
+        if (end == -1)
+            end = uri.length();
+
+        int start = TextUtils.indexOf(uri, '?', 0, end);
+        return start == -1 ? parse(uri, end, end) : parse(uri, start + 1, end);
     }
 
     /**
-     * Converts encoded characters with % to unencoded characters
+     * Parses query string and packs result, for results which are kept for a long time.
+     * Keys are compared ignoring case if parser has CASE_INSENSITIVE_KEYS flag.
      *
-     * @param map input map
-     * @return processed map
+     * @param query query string
+     * @return packed map of queries
+     * @see #parse(String)
+     * @see FrozenQueryMap
      */
-    private static Map<String, List<String>> convertEncodedCharacters(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .map(e -> new Pair<>(convertEncodedCharacters(e.getKey()), convertEncodedCharacters(e.getValue())))
-                .collect(toMap(Pair::getKey, Pair::getValue,
-                        (list1, list2) -> Stream.concat(list1.stream(), list2.stream()).collect(toList())));
+    public FrozenQueryMap parseFrozen(CharSequence query) {
+        checkQueryNonNull(query);
+        return FrozenQueryMap.freeze(parse(query, 0, query.length()),
+                containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS));
     }
 
     /**
-     * Ignores all white space around key and value items.
-     * Converts fully white space keys and values to empty string.
-     * keys are a set so if after this operation two keys become equal
-     * then values are merged.
-     * This Also makes Set of white Spaces between words to a single space.
+     * Parses query strings which each key has a single value.
+     * When a key has more than one value, duplicate key policy of builder
+     * decides which one is kept, no list is created for keys.
+     * Policy is applied while query is scanned: REJECT throws at the first
+     * duplicate key, and FIRST_WINS does not decode values of later duplicates,
+     * so malformed characters in them are not reported.
+     *
+     * @param query query string
+     * @return map of keys to their values (values can be null)
+     * @throws IllegalArgumentException if policy is REJECT and a key has different values
      */
-    private static Map<String, List<String>> ignoreWhiteSpace(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .map(e -> new Pair<>(ignoreWhiteSpace(e.getKey()), ignoreWhiteSpace(e.getValue())))
-                .collect(toMap(Pair::getKey, Pair::getValue,
-                        (list1, list2) -> Stream.concat(list1.stream(), list2.stream()).collect(toList())));
+    public Map<String, String> parseSingle(String query) {
+        checkQueryNonNull(query);
+        if (sampler == null)
+            return parseSingleValues(query);
+
+        long start = System.nanoTime();
+        try {
+            Map<String, String> map = parseSingleValues(query);
+            sampler.record(this, query, 0, query.length(), System.nanoTime() - start, null);
+            return map;
+        } catch (RuntimeException e) {
+            sampler.record(this, query, 0, query.length(), System.nanoTime() - start, e);
+            throw e;
+        }
     }
 
     /**
-     * Merges equal values.
-     * Also note that: (null is equal to null) but ("" is not equal to null)
+     * Same as {@link #parseSingle(String)} without sampler.
+     * With parallel parsing or prefix cache pairs are made first, then policy is applied to them.
      */
-    private static Map<String, List<String>> mergeValues(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .collect(toMap(Map.Entry::getKey, e -> mergeValues(e.getValue())));
+    private Map<String, String> parseSingleValues(String query) {
+        Map<String, String> map = containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                ? new CaseInsensitiveMap<>() : nonNullKeyMap();
+
+        if (isParallel(0, query.length()) || prefixCache != null) {
+            for (Pair<String, String> pair : pairs(query, 0, query.length()))
+                if (needsValue(map, pair.getKey()))
+                    putSingle(map, pair.getKey(), pair.getValue());
+            return Collections.unmodifiableMap(map);
+        }
+
+        checkPreconditions(query, 0, query.length());
+        QueryScanner scanner = new QueryScanner(query, 0, query.length(), delimiters);
+        while (scanner.next()) {
+            String key = normalizeKey(query.substring(scanner.keyStart(), scanner.keyEnd()));
+            if (key.isEmpty()) {
+                // value is needed to know if pair is kept, same as pairAt
+                Pair<String, String> pair = new Pair<>(key, valueAt(query, scanner));
+                if (!isEmptyKeyToNull(pair) && needsValue(map, key))
+                    putSingle(map, key, pair.getValue());
+            } else if (needsValue(map, key)) {
+                putSingle(map, key, valueAt(query, scanner));
+            }
+        }
+
+        return Collections.unmodifiableMap(map);
     }
 
     /**
-     * Converts empty values to null.
-     * But does not manipulate keys.
+     * @return processed value of current part of scanner, null if it has no value
      */
-    private static Map<String, List<String>> convertToNull(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .collect(toMap(Map.Entry::getKey, e -> convertToNull(e.getValue())));
+    private String valueAt(String query, QueryScanner scanner) {
+        return scanner.hasValue()
+                ? normalizeValue(query.substring(scanner.valueStart(), scanner.valueEnd())) : null;
     }
 
     /**
-     * Removes empty string to null mapping
-     * (for example in parse("") we have one)
+     * Applies duplicate key policy to a key before its value is processed
+     *
+     * @param map values of previous keys
+     * @param key processed key
+     * @return true if value of <tt>key</tt> is needed, false if it is skipped
+     * @throws IllegalArgumentException if policy is REJECT and MERGE_VALUES flag is not added
      */
-    private static Map<String, List<String>> removeEmptyKeyToNullMaps(Map<String, List<String>> map) {
-        return map.entrySet()
-                .stream()
-                .map(Pair::new)
-                .map(mapIf(e -> e.getKey().isEmpty(),
-                        e -> new Pair<>(e.getKey(), filterNonNull(e.getValue()))))
-                .collect(toMap(Pair::getKey, Pair::getValue));
+    private boolean needsValue(Map<String, String> map, String key) {
+        if (!map.containsKey(key))
+            return true;
+
+        switch (duplicateKeyPolicy) {
+            case FIRST_WINS:
+                return false;
+            case REJECT:
+                if (!containsFlag(QueryParserFlag.MERGE_VALUES))
+                    throw new IllegalArgumentException("query string has duplicate key");
+                return true;
+            default:
+                return true;
+        }
     }
 
     /**
-     * filters non null elements in a list
+     * Puts a value which is needed by duplicate key policy,
+     * REJECT (with MERGE_VALUES flag) only accepts equal values
      *
-     * @param list input list
-     * @return filtered list
+     * @throws IllegalArgumentException if policy rejects a different value
      */
-    private static List<String> filterNonNull(List<String> list) {
-        return list.stream()
-                .filter(Objects::nonNull)
-                .collect(toList());
+    private void putSingle(Map<String, String> map, String key, String value) {
+        if (duplicateKeyPolicy == DuplicateKeyPolicy.REJECT && map.containsKey(key)
+                && !Objects.equals(map.get(key), value))
+            throw new IllegalArgumentException("query string has duplicate key");
+        map.put(key, value);
     }
 
     /**
-     * Parses query string after checking all aspects
+     * Parses query string with nested keys (PHP and Rails style) into a tree.
+     * Brackets and dots in keys make paths, for example
+     * filter[status][]=open&amp;filter.owner=me is parsed to
+     * {filter={status=[open], owner=[me]}}.
+     * Inner nodes are maps (String to Object) and leaves are lists of values.
+     * A trailing [] appends to the list of its parent path.
+     * Nested keys should be enabled in builder.
      *
      * @param query query string
+     * @return unmodifiable tree of keys
+     * @throws IllegalStateException    if nested keys are not enabled
+     * @throws IllegalArgumentException if a key is bad, conflicts with another key
+     *                                  or exceeds depth or width limits
      */
-    private static Map<String, List<String>> parseChecked(String query) {
-        return stringSplit(query, '&').stream()
-                .map(str -> stringSplit(str, '='))
-                .map(QueryParser::keyValueOrNullPair)
-                .collect(groupingBy(Pair::getKey, mapping(Pair::getValue, toList())));
+    public Map<String, Object> parseNested(String query) {
+        if (maxNestedDepth == 0)
+            throw new IllegalStateException("nested keys are not enabled");
+
+        checkQueryNonNull(query);
+        NestedKeyTree tree = new NestedKeyTree(maxNestedDepth, maxNestedWidth,
+                containsFlag(QueryParserFlag.MERGE_VALUES), containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS));
+        for (Pair<String, String> pair : pairs(query, 0, query.length()))
+            tree.add(pair.getKey(), pair.getValue());
+        return tree.build();
     }
 
+    /**
+     * Parses query string and passes each key value pair to <tt>action</tt>
+     * in the order they appear in query string, without building a map.
+     * All flags are applied except MERGE_VALUES, which needs all values of a key.
+     *
+     * @param query  query string
+     * @param action consumer of key and value (value can be null)
+     * @throws NullPointerException if <tt>query</tt> or <tt>action</tt> is null
+     */
+    public void forEachPair(String query, BiConsumer<? super String, ? super String> action) {
+        checkQueryNonNull(query);
+        if (action == null)
+            throw new NullPointerException("action should not be null");
+
+        for (Pair<String, String> pair : pairs(query, 0, query.length()))
+            action.accept(pair.getKey(), pair.getValue());
+    }
 
     /**
-     * Maps a list of one item to list of that item and null
-     * Maps a list of two items to itself
+     * Splits a query string to key value pairs and applies
+     * all flags which work on a single pair.
+     * Uses parallel parsing or prefix cache if they are enabled.
+     * Sequential path is plain loops, so the first call does not
+     * bootstrap lambdas or load stream classes.
      *
-     * @param list input list
-     * @return output list of key and value
+     * @param query sequence which contains query string, not null
+     * @param from  start index of query string (inclusive)
+     * @param to    end index of query string (exclusive)
+     * @return pairs in query order
      */
-    private static Pair<String, String> keyValueOrNullPair(List<String> list) {
-        return new Pair<>(list.get(0), list.size() == 2 ? list.get(1) : null);
+    private List<Pair<String, String>> pairs(CharSequence query, int from, int to) {
+        if (isParallel(from, to))
+            return parallelPairs(query, from, to);
+        if (prefixCache != null)
+            return prefixCache.pairs(this, query, from, to);
+        return scanPairs(query, from, to);
     }
 
-    public static QueryParserBuilder builder() {
-        return new QueryParserBuilder();
+    /**
+     * Same as {@link #pairs(CharSequence, int, int)} without prefix cache
+     */
+    private List<Pair<String, String>> scanPairs(CharSequence query, int from, int to) {
+        checkPreconditions(query, from, to);
+
+        List<Pair<String, String>> pairs = new ArrayList<>();
+        QueryScanner scanner = new QueryScanner(query, from, to, delimiters);
+        while (scanner.next()) {
+            Pair<String, String> pair = pairAt(query, scanner);
+            if (pair != null)
+                pairs.add(pair);
+        }
+
+        return pairs;
     }
 
     /**
-     * Parses query strings.
-     * You can get query String from URI by {@link URI#getQuery()}.
-     * Also note that your string should not include "?"
-     *
-     * @param query query string
-     * @return map of queries
+     * @param query   sequence which contains query string
+     * @param scanner scanner which is on a part of <tt>query</tt>
+     * @return processed pair of current part or null if it is not kept
      */
-    public Map<String, List<String>> parse(String query) {
-        checkPreconditions(query);
+    Pair<String, String> pairAt(CharSequence query, QueryScanner scanner) {
+        String key = normalizeKey(substring(query, scanner.keyStart(), scanner.keyEnd()));
+        String value = scanner.hasValue()
+                ? normalizeValue(substring(query, scanner.valueStart(), scanner.valueEnd())) : null;
 
-        if (containsFlag(QueryParserFlag.IGNORE_WHITE_SPACE))
-            query = ignoreWhiteSpaceEx(query);
+        Pair<String, String> pair = new Pair<>(key, value);
+        return isEmptyKeyToNull(pair) ? null : pair;
+    }
 
-        Map<String, List<String>> map = parseChecked(query);
+    /**
+     * Applies flags to a raw key in the order:
+     * IGNORE_WHITE_SPACE then decoding then HARD_IGNORE_WHITE_SPACE
+     *
+     * @param key raw key which is not null
+     * @return processed key
+     */
+    String normalizeKey(String key) {
+        return normalizeDecodedKey(convertEncodedCharacters(normalizeRaw(key)));
+    }
+
+    /**
+     * Applies flags to a raw value in the order:
+     * IGNORE_WHITE_SPACE then decoding then HARD_IGNORE_WHITE_SPACE then CONVERT_TO_NULL
+     *
+     * @param value raw value, null if part does not have '='
+     * @return processed value
+     */
+    String normalizeValue(String value) {
+        if (value == null)
+            return null;
+        return normalizeDecodedValue(convertEncodedCharacters(normalizeRaw(value)));
+    }
 
-        map = convertEncodedCharacters(map);
+    /**
+     * Applies flags which work before decoding (IGNORE_WHITE_SPACE)
+     *
+     * @param str raw key or value which is not null
+     * @return processed string
+     */
+    String normalizeRaw(String str) {
+        if (containsFlag(QueryParserFlag.IGNORE_WHITE_SPACE))
+            str = ignoreWhiteSpace(str);
+        return str;
+    }
 
+    /**
+     * Applies flags which work after decoding on keys (HARD_IGNORE_WHITE_SPACE)
+     *
+     * @param key decoded key which is not null
+     * @return processed key
+     */
+    String normalizeDecodedKey(String key) {
         if (containsFlag(QueryParserFlag.HARD_IGNORE_WHITE_SPACE))
-            map = ignoreWhiteSpace(map);
+            key = ignoreWhiteSpace(key);
+        return key;
+    }
+
+    /**
+     * Applies flags which work after decoding on values
+     * (HARD_IGNORE_WHITE_SPACE then CONVERT_TO_NULL)
+     *
+     * @param value decoded value which is not null
+     * @return processed value
+     */
+    String normalizeDecodedValue(String value) {
+        value = normalizeDecodedKey(value);
 
         if (containsFlag(QueryParserFlag.CONVERT_TO_NULL))
-            map = convertToNull(map);
+            value = TextUtils.convertEmptyStringToNull(value);
 
-        if (containsFlag(QueryParserFlag.MERGE_VALUES))
-            map = mergeValues(map);
+        return value;
+    }
 
-        map = removeEmptyKeyToNullMaps(map);
-        map = removeKeysWithEmptyValue(map);
+    /**
+     * Splits query string to chunks at pair separators and makes pairs of them in parallel.
+     * All flags work on a single pair or a single part, so chunks can be checked
+     * and processed independently. Prefix cache is not used for chunks.
+     *
+     * @param query sequence which contains query string, not null
+     * @param from  start index of query string (inclusive)
+     * @param to    end index of query string (exclusive)
+     * @return pairs in query order
+     */
+    private List<Pair<String, String>> parallelPairs(CharSequence query, int from, int to) {
+        int chunkSize = Math.max(MIN_CHUNK_SIZE,
+                (to - from) / (ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
 
-        return unmodifiableNonNullKeyMap(map);
+        return splitChunks(query, delimiters.getPairSeparators(), from, to, chunkSize).parallelStream()
+                .flatMap(chunk -> scanPairs(query, chunk.getKey(), chunk.getValue()).stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @param from start index of query string (inclusive)
+     * @param to   end index of query string (exclusive)
+     * @return true if query should be parsed in parallel
+     */
+    private boolean isParallel(int from, int to) {
+        return parallelThreshold != 0 && to - from >= parallelThreshold;
     }
 
     /**
@@ -277,15 +546,25 @@ public class QueryParser {
      *
      * @param query query
      */
-    private void checkPreconditions(String query) {
+    void checkPreconditions(String query) {
         checkQueryNonNull(query);
+        checkPreconditions(query, 0, query.length());
+    }
 
-        checkCharactersGeneral(query);
+    /**
+     * checks preconditions of a range
+     *
+     * @param query sequence which contains query string, not null
+     * @param from  start index of query string (inclusive)
+     * @param to    end index of query string (exclusive)
+     */
+    void checkPreconditions(CharSequence query, int from, int to) {
+        checkCharactersGeneral(query, from, to, maxNestedDepth != 0);
         if (!containsFlag(QueryParserFlag.WHITE_SPACE_IS_VALID))
-            checkWhiteSpaceCharacters(query);
+            checkWhiteSpaceCharacters(query, from, to, delimiters);
 
-        checkEncodedCharacters();
-        checkStructure(query);
+        checkEncodedCharacters(query, from, to);
+        checkStructure(query, from, to, delimiters);
     }
 
     /**
@@ -300,4 +579,88 @@ public class QueryParser {
             throw new NullPointerException("flag should not be null");
         return flags.contains(flag);
     }
+
+    /**
+     * @return policy of {@link #parseSingle(String)} for keys with more than one value
+     */
+    public DuplicateKeyPolicy getDuplicateKeyPolicy() {
+        return duplicateKeyPolicy;
+    }
+
+    /**
+     * @return maximum depth of nested keys or 0 if nested keys are not enabled
+     */
+    public int getMaxNestedDepth() {
+        return maxNestedDepth;
+    }
+
+    /**
+     * @return maximum number of keys of a node of nested keys
+     */
+    public int getMaxNestedWidth() {
+        return maxNestedWidth;
+    }
+
+    /**
+     * @return charset of percent encoded characters
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return true if prefix cache is enabled
+     */
+    public boolean hasPrefixCache() {
+        return prefixCache != null;
+    }
+
+    /**
+     * @return characters which separate pairs
+     */
+    public char[] getPairSeparators() {
+        return delimiters.getPairSeparators().toCharArray();
+    }
+
+    /**
+     * @return character which separates key and value of a pair
+     */
+    public char getKeyValueSeparator() {
+        return delimiters.getKeyValueSeparator();
+    }
+
+    /**
+     * @return true if white space around separators is not part of keys and values
+     */
+    public boolean isTrimmingWhiteSpaceAroundSeparators() {
+        return delimiters.isTrimmingWhiteSpace();
+    }
+
+    /**
+     * @return separators of parser
+     */
+    Delimiters getDelimiters() {
+        return delimiters;
+    }
+
+    /**
+     * @return sampler of slowest and largest inputs or null if it is not attached
+     */
+    public QueryParserSampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * @return prefix cache or null, for tests
+     */
+    PrefixCache getPrefixCache() {
+        return prefixCache;
+    }
+
+    /**
+     * @return minimum query length which is parsed in parallel or 0 if parsing is always sequential
+     */
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
 }
@@ -1,5 +1,7 @@
 package com.github.fatulm.query;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.EnumSet;
 
@@ -8,6 +10,16 @@ import java.util.EnumSet;
  */
 public class QueryParserBuilder {
     private EnumSet<QueryParserFlag> flags;
+    private int parallelThreshold;
+    private DuplicateKeyPolicy duplicateKeyPolicy = DuplicateKeyPolicy.FIRST_WINS;
+    private int maxNestedDepth;
+    private int maxNestedWidth;
+    private int prefixCacheSize;
+    private Charset charset = StandardCharsets.UTF_8;
+    private QueryParserSampler sampler;
+    private String pairSeparators = "&";
+    private char keyValueSeparator = '=';
+    private boolean trimWhiteSpaceAroundSeparators;
 
     /**
      * Called from QueryParser.builder()
@@ -86,9 +98,197 @@ public class QueryParserBuilder {
     }
 
     /**
+     * Sets minimum length of query strings which are parsed in parallel.
+     * Such queries are split at '&amp;' and chunks are parsed on the common
+     * fork join pool with the same flags.
+     * Zero (default) means queries are always parsed sequentially.
+     *
+     * @param threshold minimum query length or 0
+     * @return this
+     * @throws IllegalArgumentException if <tt>threshold</tt> is negative
+     */
+    public QueryParserBuilder parallelThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold should not be negative");
+
+        this.parallelThreshold = threshold;
+
+        return this;
+    }
+
+    /**
+     * Sets what {@link QueryParser#parseSingle(String)} does when a key
+     * has more than one value. Default is FIRST_WINS.
+     *
+     * @param policy duplicate key policy
+     * @return this
+     * @throws NullPointerException if <tt>policy</tt> is null
+     */
+    public QueryParserBuilder duplicateKeyPolicy(DuplicateKeyPolicy policy) {
+        if (policy == null)
+            throw new NullPointerException("policy should not be null");
+
+        this.duplicateKeyPolicy = policy;
+
+        return this;
+    }
+
+    /**
+     * Enables {@link QueryParser#parseNested(String)} with limits for
+     * the tree of keys, so a query can not make a very deep or wide tree.
+     * Unencoded '[' and ']' become valid characters of queries of the parser.
+     *
+     * @param maxDepth maximum number of parts of a key path, a[b][c] has three
+     * @param maxWidth maximum number of keys of a node of the tree
+     * @return this
+     * @throws IllegalArgumentException if a limit is not positive
+     */
+    public QueryParserBuilder nestedKeys(int maxDepth, int maxWidth) {
+        if (maxDepth <= 0 || maxWidth <= 0)
+            throw new IllegalArgumentException("nested key limits should be positive");
+
+        this.maxNestedDepth = maxDepth;
+        this.maxNestedWidth = maxWidth;
+
+        return this;
+    }
+
+    /**
+     * Enables a cache of parsed query prefixes, for queries which share
+     * leading parameters and differ in the last ones.
+     * Cached parts are not checked and processed again.
+     * Each built parser has its own cache, which is safe for concurrent use.
+     * <br>
+     * Size of cache is in characters: a cached part counts its raw text with
+     * its separator and its processed key and value. When cache is full, the
+     * parsing thread which finds it full evicts the least recently used half,
+     * which takes time in order of cache size, so very large caches make rare
+     * parse calls slower.
+     *
+     * @param maxChars maximum number of characters retained by cached parts
+     * @return this
+     * @throws IllegalArgumentException if <tt>maxChars</tt> is not positive
+     */
+    public QueryParserBuilder prefixCache(int maxChars) {
+        if (maxChars <= 0)
+            throw new IllegalArgumentException("cache size should be positive");
+
+        this.prefixCacheSize = maxChars;
+
+        return this;
+    }
+
+    /**
+     * Sets charset of bytes of percent encoded characters. Default is UTF-8.
+     * Bytes which are not valid in charset make parsing fail.
+     * Charsets which do not encode ASCII as single bytes (like UTF-16) work too,
+     * then all encoded bytes are decoded with charset, so %00%41 is "A" in UTF-16BE.
+     *
+     * @param charset charset of encoded characters
+     * @return this
+     * @throws NullPointerException if <tt>charset</tt> is null
+     */
+    public QueryParserBuilder charset(Charset charset) {
+        if (charset == null)
+            throw new NullPointerException("charset should not be null");
+
+        this.charset = charset;
+
+        return this;
+    }
+
+    /**
+     * Sets characters which separate pairs, default is '&amp;'.
+     * For example ';' for matrix parameters and cookie headers,
+     * or ',' for key:value lists (with ':' as key value separator).
+     * Separators can be any of <tt>!$&amp;'()*+,/:;=?@</tt> and are not
+     * valid in keys and values unless they are percent encoded.
+     *
+     * @param separators one or more separators
+     * @return this
+     * @throws NullPointerException     if <tt>separators</tt> is null
+     * @throws IllegalArgumentException if there is no separator, a separator can not be used
+     *                                  or it is the key value separator
+     */
+    public QueryParserBuilder pairSeparators(char... separators) {
+        if (separators == null)
+            throw new NullPointerException("separators should not be null");
+        if (separators.length == 0)
+            throw new IllegalArgumentException("pair separators should not be empty");
+        for (char separator : separators) {
+            checkSeparator(separator);
+            if (separator == keyValueSeparator)
+                throw new IllegalArgumentException("pair separator should not be key value separator");
+        }
+
+        this.pairSeparators = new String(separators);
+
+        return this;
+    }
+
+    /**
+     * Sets character which separates key and value of a pair, default is '='.
+     *
+     * @param separator key value separator, one of <tt>!$&amp;'()*+,/:;=?@</tt>
+     * @return this
+     * @throws IllegalArgumentException if separator can not be used or it is a pair separator
+     * @see #pairSeparators(char...)
+     */
+    public QueryParserBuilder keyValueSeparator(char separator) {
+        checkSeparator(separator);
+        if (pairSeparators.indexOf(separator) != -1)
+            throw new IllegalArgumentException("pair separator should not be key value separator");
+
+        this.keyValueSeparator = separator;
+
+        return this;
+    }
+
+    /**
+     * Makes white space around separators not a part of keys and values,
+     * so "a = 1; b=2" with ';' separator has keys "a" and "b".
+     * White space which is trimmed is valid without WHITE_SPACE_IS_VALID.
+     *
+     * @return this
+     */
+    public QueryParserBuilder trimWhiteSpaceAroundSeparators() {
+        this.trimWhiteSpaceAroundSeparators = true;
+
+        return this;
+    }
+
+    private static void checkSeparator(char separator) {
+        if (Delimiters.SEPARATOR_CHARACTERS.indexOf(separator) == -1)
+            throw new IllegalArgumentException("separator should be one of " + Delimiters.SEPARATOR_CHARACTERS);
+    }
+
+    /**
+     * Attaches a sampler which keeps the slowest and the largest inputs.
+     * Without a sampler parse calls are not timed.
+     *
+     * @param sampler sampler of parser, can be shared by parsers
+     * @return this
+     * @throws NullPointerException if <tt>sampler</tt> is null
+     */
+    public QueryParserBuilder sampler(QueryParserSampler sampler) {
+        if (sampler == null)
+            throw new NullPointerException("sampler should not be null");
+
+        this.sampler = sampler;
+
+        return this;
+    }
+
+    /**
+     * Builds a parser with current settings of builder. Flags are copied,
+     * so builder can be changed and reused without changing built parsers.
+     * Builder itself is not thread safe.
+     *
      * @return query parser with added flags
      */
     public QueryParser build() {
-        return new QueryParser(flags);
+        return new QueryParser(EnumSet.copyOf(flags), parallelThreshold, duplicateKeyPolicy, maxNestedDepth, maxNestedWidth,
+                prefixCacheSize, charset, sampler,
+                new Delimiters(pairSeparators, keyValueSeparator, trimWhiteSpaceAroundSeparators));
     }
 }
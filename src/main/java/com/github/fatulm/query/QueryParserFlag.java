@@ -9,6 +9,8 @@ package com.github.fatulm.query;
  * <tt>CONVERT_TO_NULL</tt> converts empty strings to null.
  * <tt>WHITE_SPACE_IS_VALID</tt> indicates that query string can have unencoded white space.
  * <tt>HARD_IGNORE_WHITE_SPACE</tt> ignores encoded white space too.
+ * <tt>CASE_INSENSITIVE_KEYS</tt> merges keys which differ only by case (first spelling is kept)
+ * and makes lookups of results of parse and parseSingle case insensitive.
  * If you add all of them they will be execute in the order:
  * IGNORE_WHITE_SPACE then HARD_IGNORE_WHITE_SPACE then CONVERT_TO_NULL then MERGE_VALUES
  */
@@ -17,5 +19,6 @@ public enum QueryParserFlag {
     CONVERT_TO_NULL,
     MERGE_VALUES,
     WHITE_SPACE_IS_VALID,
-    HARD_IGNORE_WHITE_SPACE
+    HARD_IGNORE_WHITE_SPACE,
+    CASE_INSENSITIVE_KEYS
 }
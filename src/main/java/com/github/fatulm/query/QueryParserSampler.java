@@ -0,0 +1,427 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the slowest and the largest inputs of parsers for diagnosis of latency spikes.
+ * Attach it with {@link QueryParserBuilder#sampler(QueryParserSampler)}, then read
+ * {@link #getSlowest()} and {@link #getLargest()} at runtime.
+ * A sampler can be shared by parsers, each sample has flags of its parser.
+ * <br>
+ * {@link QueryParser#parse(String)} (and its overloads) and {@link QueryParser#parseSingle(String)}
+ * calls are sampled, also the ones which throw for a bad query, see {@link Sample#getFailure()}.
+ * Parser measures total time of a call, which is compared with the smallest kept
+ * sample (a volatile read). Only when an input is kept, at most maximum input length
+ * of it is copied on the calling thread.
+ * <br>
+ * Stages and pair count are not of the sampled call: kept input is parsed again
+ * with timers around each stage (without prefix cache) when samples are read, on
+ * the reading thread, so sampled calls are not slowed down by instrumentation.
+ * That later run can be on a warmer JVM and is only a hint of where the sampled
+ * call spent its time; {@link Sample#getDurationNanos()} is the measured call.
+ * <br>
+ * Reservoirs are lock-free arrays which replace their smallest sample with
+ * compare and set. Smallest key of a reservoir only grows (until it is cleared),
+ * so a stale threshold only makes an extra copy and does not lose samples.
+ * Updating threshold and clearing hold the reservoir's lock, so a threshold of
+ * samples before clear does not survive it.
+ */
+public class QueryParserSampler {
+    private final int maxInputLength;
+    private final Reservoir slowest;
+    private final Reservoir largest;
+
+    /**
+     * @param capacity       number of kept slowest inputs and also of largest inputs
+     * @param maxInputLength inputs are truncated to this length
+     * @throws IllegalArgumentException if <tt>capacity</tt> or <tt>maxInputLength</tt> is not positive
+     */
+    public QueryParserSampler(int capacity, int maxInputLength) {
+        if (capacity <= 0 || maxInputLength <= 0)
+            throw new IllegalArgumentException("sampler capacity and input length should be positive");
+
+        this.maxInputLength = maxInputLength;
+        this.slowest = new Reservoir(capacity, false);
+        this.largest = new Reservoir(capacity, true);
+    }
+
+    /**
+     * Called by parser after a call, only copies input if it is kept
+     *
+     * @param parser        parser which parsed query
+     * @param query         sequence which contains query string
+     * @param from          start index of query string (inclusive), range is checked by parser
+     * @param to            end index of query string (exclusive)
+     * @param durationNanos time of call
+     * @param failure       exception of call, null if it returned normally
+     */
+    void record(QueryParser parser, CharSequence query, int from, int to, long durationNanos,
+                RuntimeException failure) {
+        boolean slow = slowest.accepts(durationNanos);
+        boolean large = largest.accepts(to - from);
+        if (!slow && !large)
+            return;
+
+        String input = TextUtils.substring(query, from, Math.min(to, from + maxInputLength));
+        Sample sample = new Sample(parser, input, to - from, durationNanos,
+                failure == null ? null : failure.toString());
+        if (slow)
+            slowest.offer(sample);
+        if (large)
+            largest.offer(sample);
+    }
+
+    /**
+     * Parses input again with the same methods as parser and measures each stage
+     *
+     * @param parser parser which parsed input
+     * @param input  query string
+     * @return pair count and time of stages, stages after a failure are zero
+     */
+    private static Profile profile(QueryParser parser, String input) {
+        EnumSet<QueryParserFlag> flags = EnumSet.noneOf(QueryParserFlag.class);
+        for (QueryParserFlag flag : QueryParserFlag.values())
+            if (parser.containsFlag(flag))
+                flags.add(flag);
+
+        long[] stageNanos = new long[Stage.values().length];
+        try {
+            return new Profile(flags, profile(parser, input, stageNanos), stageNanos);
+        } catch (IllegalArgumentException e) {
+            return new Profile(flags, 0, stageNanos);
+        }
+    }
+
+    /**
+     * @param stageNanos time of stages which is filled as stages are done
+     * @return pair count
+     */
+    private static int profile(QueryParser parser, String input, long[] stageNanos) {
+        long start = System.nanoTime();
+        parser.checkPreconditions(input);
+        long end = System.nanoTime();
+        stageNanos[Stage.VALIDATION.ordinal()] = end - start;
+
+        // keys and values one after another, value is null if part has no separator
+        List<String> strings = new ArrayList<>();
+        start = end;
+        QueryScanner scanner = new QueryScanner(input, parser.getDelimiters());
+        while (scanner.next()) {
+            strings.add(input.substring(scanner.keyStart(), scanner.keyEnd()));
+            strings.add(scanner.hasValue() ? input.substring(scanner.valueStart(), scanner.valueEnd()) : null);
+        }
+        end = System.nanoTime();
+        stageNanos[Stage.SPLITTING.ordinal()] = end - start;
+
+        start = end;
+        for (int i = 0; i < strings.size(); i++)
+            if (strings.get(i) != null)
+                strings.set(i, parser.normalizeRaw(strings.get(i)));
+        end = System.nanoTime();
+        stageNanos[Stage.FLAG_TRANSFORMS.ordinal()] += end - start;
+
+        start = end;
+        for (int i = 0; i < strings.size(); i++)
+            if (strings.get(i) != null)
+                strings.set(i, parser.convertEncodedCharacters(strings.get(i)));
+        end = System.nanoTime();
+        stageNanos[Stage.DECODING.ordinal()] = end - start;
+
+        start = end;
+        List<Pair<String, String>> pairs = new ArrayList<>();
+        for (int i = 0; i < strings.size(); i += 2) {
+            String value = strings.get(i + 1);
+            Pair<String, String> pair = new Pair<>(parser.normalizeDecodedKey(strings.get(i)),
+                    value == null ? null : parser.normalizeDecodedValue(value));
+            if (!QueryParser.isEmptyKeyToNull(pair))
+                pairs.add(pair);
+        }
+        parser.group(pairs);
+        end = System.nanoTime();
+        stageNanos[Stage.FLAG_TRANSFORMS.ordinal()] += end - start;
+
+        return pairs.size();
+    }
+
+    /**
+     * @return kept slowest samples, slowest first
+     */
+    public List<Sample> getSlowest() {
+        return slowest.samples();
+    }
+
+    /**
+     * @return kept largest samples, largest first
+     */
+    public List<Sample> getLargest() {
+        return largest.samples();
+    }
+
+    /**
+     * Removes all kept samples
+     */
+    public void clear() {
+        slowest.clear();
+        largest.clear();
+    }
+
+    /**
+     * Stages of parsing a query
+     */
+    public enum Stage {
+        /**
+         * checking characters, encoded characters and structure
+         */
+        VALIDATION,
+        /**
+         * finding parts, keys and values
+         */
+        SPLITTING,
+        /**
+         * decoding percent encoded characters
+         */
+        DECODING,
+        /**
+         * white space flags, CONVERT_TO_NULL and MERGE_VALUES
+         */
+        FLAG_TRANSFORMS
+    }
+
+    /**
+     * Result of parsing a sample again with timers
+     */
+    private static class Profile {
+        private final EnumSet<QueryParserFlag> flags;
+        private final int pairCount;
+        private final long[] stageNanos;
+
+        Profile(EnumSet<QueryParserFlag> flags, int pairCount, long[] stageNanos) {
+            this.flags = flags;
+            this.pairCount = pairCount;
+            this.stageNanos = stageNanos;
+        }
+    }
+
+    /**
+     * A kept input of a parser call. Immutable after it is profiled,
+     * samples which are returned by sampler are profiled.
+     */
+    public static class Sample {
+        private final String input;
+        private final int inputLength;
+        private final long durationNanos;
+        private final String failure;
+        // kept until sample is profiled
+        private QueryParser parser;
+        private volatile Profile profile;
+
+        Sample(QueryParser parser, String input, int inputLength, long durationNanos, String failure) {
+            this.input = input;
+            this.inputLength = inputLength;
+            this.durationNanos = durationNanos;
+            this.failure = failure;
+            this.parser = parser;
+        }
+
+        /**
+         * Parses input again on the calling thread if it is not profiled yet.
+         * A truncated input is parsed up to its last pair separator.
+         */
+        private Profile profile() {
+            Profile result = profile;
+            if (result != null)
+                return result;
+
+            synchronized (this) {
+                if (profile == null) {
+                    profile = QueryParserSampler.profile(parser, profiledInput(parser.getDelimiters()));
+                    parser = null;
+                }
+                return profile;
+            }
+        }
+
+        /**
+         * @return input, or its whole pairs if it is truncated
+         */
+        private String profiledInput(Delimiters delimiters) {
+            if (!isTruncated())
+                return input;
+
+            for (int i = input.length() - 1; i >= 0; i--)
+                if (delimiters.isPairSeparator(input.charAt(i)))
+                    return input.substring(0, i);
+            return "";
+        }
+
+        /**
+         * @return query string, truncated if it is longer than maximum input length of sampler
+         */
+        public String getInput() {
+            return input;
+        }
+
+        /**
+         * @return length of query string before truncating
+         */
+        public int getInputLength() {
+            return inputLength;
+        }
+
+        /**
+         * @return true if input is truncated
+         */
+        public boolean isTruncated() {
+            return input.length() < inputLength;
+        }
+
+        /**
+         * @return description of exception of the sampled call, null if it returned normally
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return flags of parser
+         */
+        public EnumSet<QueryParserFlag> getFlags() {
+            return EnumSet.copyOf(profile().flags);
+        }
+
+        /**
+         * @return time of the sampled call (not the instrumented one)
+         */
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return number of key value pairs when input is parsed again, only pairs
+         * before truncation are counted and it is 0 if input is not valid
+         */
+        public int getPairCount() {
+            return profile().pairCount;
+        }
+
+        /**
+         * @param stage stage of parsing
+         * @return time of stage when input is parsed again, not of the sampled call
+         * @throws NullPointerException if <tt>stage</tt> is null
+         */
+        public long getStageNanos(Stage stage) {
+            if (stage == null)
+                throw new NullPointerException("stage should not be null");
+            return profile().stageNanos[stage.ordinal()];
+        }
+
+        /**
+         * @return stage which took the most time when input is parsed again
+         */
+        public Stage getDominantStage() {
+            long[] stageNanos = profile().stageNanos;
+            Stage dominant = Stage.VALIDATION;
+            for (Stage stage : Stage.values())
+                if (stageNanos[stage.ordinal()] > stageNanos[dominant.ordinal()])
+                    dominant = stage;
+            return dominant;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{input=" + input + (isTruncated() ? "..." : "")
+                    + ", inputLength=" + inputLength
+                    + ", flags=" + profile().flags
+                    + ", durationNanos=" + durationNanos
+                    + (failure == null ? "" : ", failure=" + failure)
+                    + ", pairCount=" + profile().pairCount
+                    + ", dominantStage=" + getDominantStage() + "}";
+        }
+    }
+
+    /**
+     * Bounded set of samples with the biggest keys (duration or input length)
+     */
+    private static class Reservoir {
+        private final AtomicReferenceArray<Sample> slots;
+        private final boolean bySize;
+        // smallest key of a full reservoir, -1 while it has empty slots
+        private volatile long threshold = -1;
+
+        Reservoir(int capacity, boolean bySize) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.bySize = bySize;
+        }
+
+        private long key(Sample sample) {
+            return bySize ? sample.inputLength : sample.durationNanos;
+        }
+
+        boolean accepts(long key) {
+            return key > threshold;
+        }
+
+        void offer(Sample sample) {
+            long key = key(sample);
+            while (true) {
+                int minIndex = -1;
+                Sample min = null;
+                for (int i = 0; i < slots.length(); i++) {
+                    Sample current = slots.get(i);
+                    if (current == null) {
+                        minIndex = i;
+                        min = null;
+                        break;
+                    }
+                    if (min == null || key(current) < key(min)) {
+                        minIndex = i;
+                        min = current;
+                    }
+                }
+
+                if (min != null && key <= key(min))
+                    return;
+                if (slots.compareAndSet(minIndex, min, sample)) {
+                    updateThreshold();
+                    return;
+                }
+            }
+        }
+
+        private synchronized void updateThreshold() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < slots.length(); i++) {
+                Sample current = slots.get(i);
+                if (current == null) {
+                    threshold = -1;
+                    return;
+                }
+                min = Math.min(min, key(current));
+            }
+            threshold = min;
+        }
+
+        List<Sample> samples() {
+            List<Sample> samples = new ArrayList<>();
+            for (int i = 0; i < slots.length(); i++) {
+                Sample sample = slots.get(i);
+                if (sample != null)
+                    samples.add(sample);
+            }
+            samples.sort((a, b) -> Long.compare(key(b), key(a)));
+            for (Sample sample : samples)
+                sample.profile();
+            return Collections.unmodifiableList(samples);
+        }
+
+        synchronized void clear() {
+            for (int i = 0; i < slots.length(); i++)
+                slots.set(i, null);
+            threshold = -1;
+        }
+    }
+}
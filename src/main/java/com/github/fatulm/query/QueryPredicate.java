@@ -0,0 +1,338 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Rule which is compiled once and tested against raw query strings
+ * without building a map.
+ * <br>
+ * Rule syntax:
+ * <pre>
+ * rule      := and ("OR" and)*
+ * and       := unary ("AND" unary)*
+ * unary     := "NOT" unary | "(" rule ")" | condition
+ * condition := key "=" value | key "exists" | key "in" "{" value ("," value)* "}"
+ * </pre>
+ * Keys and values are words or double quoted strings (with \" and \\ escapes)
+ * and are compared with keys and values after all flags of parser are applied,
+ * keys are compared ignoring case if parser has CASE_INSENSITIVE_KEYS flag.
+ * Keywords are case insensitive. For example:
+ * <pre>
+ * format=json AND (debug exists OR v in {2, 3})
+ * </pre>
+ * <tt>key = value</tt> is true if any value of key is equal to value,
+ * <tt>key exists</tt> is true if query has key (with or without value).
+ * Evaluation stops as soon as result is known, and each condition stops
+ * scanning query at the first matching pair.
+ */
+public class QueryPredicate implements Predicate<String> {
+    private final QueryParser parser;
+    private final Node root;
+    private final String rule;
+
+    private QueryPredicate(QueryParser parser, Node root, String rule) {
+        this.parser = parser;
+        this.root = root;
+        this.rule = rule;
+    }
+
+    /**
+     * Compiles a rule
+     *
+     * @param parser parser which flags are used for keys and values
+     * @param rule   rule string
+     * @return compiled predicate
+     * @throws NullPointerException     if an argument is null
+     * @throws IllegalArgumentException if rule has bad syntax
+     */
+    public static QueryPredicate compile(QueryParser parser, String rule) {
+        if (parser == null)
+            throw new NullPointerException("parser should not be null");
+        if (rule == null)
+            throw new NullPointerException("rule should not be null");
+
+        RuleParser ruleParser = new RuleParser(rule);
+        Node root = ruleParser.parseRule();
+        ruleParser.expectEnd();
+
+        return new QueryPredicate(parser, root, rule);
+    }
+
+    /**
+     * @param query query string
+     * @return true if query matches with rule
+     * @throws NullPointerException     if <tt>query</tt> is null
+     * @throws IllegalArgumentException if parser does not accept <tt>query</tt>
+     */
+    @Override
+    public boolean test(String query) {
+        parser.checkPreconditions(query);
+        return root.test(parser, query);
+    }
+
+    /**
+     * @return rule string
+     */
+    @Override
+    public String toString() {
+        return rule;
+    }
+
+    /**
+     * Node of compiled rule
+     */
+    private interface Node {
+        boolean test(QueryParser parser, String query);
+    }
+
+    private static class And implements Node {
+        private final Node left;
+        private final Node right;
+
+        And(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(QueryParser parser, String query) {
+            return left.test(parser, query) && right.test(parser, query);
+        }
+    }
+
+    private static class Or implements Node {
+        private final Node left;
+        private final Node right;
+
+        Or(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(QueryParser parser, String query) {
+            return left.test(parser, query) || right.test(parser, query);
+        }
+    }
+
+    private static class Not implements Node {
+        private final Node node;
+
+        Not(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean test(QueryParser parser, String query) {
+            return !node.test(parser, query);
+        }
+    }
+
+    /**
+     * Condition on values of a key.
+     * Keys and values are only copied and processed if they contain
+     * encoded characters or white space, otherwise raw ranges are compared.
+     */
+    private static class Condition implements Node {
+        private final String key;
+        // null means any value, including null
+        private final Set<String> values;
+
+        Condition(String key, Set<String> values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        @Override
+        public boolean test(QueryParser parser, String query) {
+            QueryScanner scanner = new QueryScanner(query, parser.getDelimiters());
+            while (scanner.next()) {
+                if (!keyMatches(parser, query, scanner))
+                    continue;
+
+                if (values == null) {
+                    // parse removes empty keys without value
+                    if (!key.isEmpty() || value(parser, query, scanner) != null)
+                        return true;
+                } else if (scanner.hasValue() && valueMatches(parser, query, scanner)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean keyMatches(QueryParser parser, String query, QueryScanner scanner) {
+            int start = scanner.keyStart();
+            int end = scanner.keyEnd();
+            boolean ignoreCase = parser.containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS);
+
+            if (QueryScanner.isVerbatim(query, start, end))
+                return ignoreCase
+                        ? QueryScanner.rangeEqualsIgnoreCase(query, start, end, key)
+                        : QueryScanner.rangeEquals(query, start, end, key);
+
+            String normalized = parser.normalizeKey(query.substring(start, end));
+            return ignoreCase ? normalized.equalsIgnoreCase(key) : normalized.equals(key);
+        }
+
+        private boolean valueMatches(QueryParser parser, String query, QueryScanner scanner) {
+            int start = scanner.valueStart();
+            int end = scanner.valueEnd();
+
+            if (!QueryScanner.isVerbatim(query, start, end)) {
+                String value = value(parser, query, scanner);
+                return value != null && values.contains(value);
+            }
+
+            if (start == end && parser.containsFlag(QueryParserFlag.CONVERT_TO_NULL))
+                return false;
+            for (String value : values)
+                if (QueryScanner.rangeEquals(query, start, end, value))
+                    return true;
+            return false;
+        }
+
+        private static String value(QueryParser parser, String query, QueryScanner scanner) {
+            if (!scanner.hasValue())
+                return null;
+            return parser.normalizeValue(query.substring(scanner.valueStart(), scanner.valueEnd()));
+        }
+    }
+
+    /**
+     * Recursive descent parser of rule strings
+     */
+    private static class RuleParser {
+        private final String rule;
+        private int position;
+
+        RuleParser(String rule) {
+            this.rule = rule;
+        }
+
+        Node parseRule() {
+            Node node = parseAnd();
+            while (acceptKeyword("OR"))
+                node = new Or(node, parseAnd());
+            return node;
+        }
+
+        private Node parseAnd() {
+            Node node = parseUnary();
+            while (acceptKeyword("AND"))
+                node = new And(node, parseUnary());
+            return node;
+        }
+
+        private Node parseUnary() {
+            if (acceptKeyword("NOT"))
+                return new Not(parseUnary());
+
+            if (accept('(')) {
+                Node node = parseRule();
+                expect(')');
+                return node;
+            }
+
+            return parseCondition();
+        }
+
+        private Node parseCondition() {
+            String key = parseLiteral();
+
+            if (accept('='))
+                return new Condition(key, Collections.singleton(parseLiteral()));
+
+            if (acceptKeyword("exists"))
+                return new Condition(key, null);
+
+            if (acceptKeyword("in")) {
+                expect('{');
+                List<String> list = new ArrayList<>();
+                list.add(parseLiteral());
+                while (accept(','))
+                    list.add(parseLiteral());
+                expect('}');
+                return new Condition(key, new HashSet<>(list));
+            }
+
+            throw error("expected '=', exists or in");
+        }
+
+        private String parseLiteral() {
+            skipWhiteSpace();
+
+            if (position < rule.length() && rule.charAt(position) == '"') {
+                StringBuilder builder = new StringBuilder();
+                position++;
+                while (position < rule.length() && rule.charAt(position) != '"') {
+                    char c = rule.charAt(position++);
+                    if (c == '\\' && position < rule.length())
+                        c = rule.charAt(position++);
+                    builder.append(c);
+                }
+                expect('"');
+                return builder.toString();
+            }
+
+            String word = word();
+            if (word.isEmpty())
+                throw error("expected key or value");
+            position += word.length();
+            return word;
+        }
+
+        /**
+         * @return word which starts at position (not consumed)
+         */
+        private String word() {
+            int end = position;
+            while (end < rule.length() && !Character.isWhitespace(rule.charAt(end))
+                    && "(){},=\"".indexOf(rule.charAt(end)) == -1)
+                end++;
+            return rule.substring(position, end);
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            skipWhiteSpace();
+            if (!word().equalsIgnoreCase(keyword))
+                return false;
+            position += keyword.length();
+            return true;
+        }
+
+        private boolean accept(char c) {
+            skipWhiteSpace();
+            if (position < rule.length() && rule.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c))
+                throw error("expected '" + c + "'");
+        }
+
+        void expectEnd() {
+            skipWhiteSpace();
+            if (position != rule.length())
+                throw error("unexpected input");
+        }
+
+        private void skipWhiteSpace() {
+            while (position < rule.length() && Character.isWhitespace(rule.charAt(position)))
+                position++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("bad rule: " + message + " at " + position);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.github.fatulm.query;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites query strings by removing, replacing and appending pairs.
+ * Parts which are not changed are copied from input as they are
+ * (consecutive parts in a single copy), only replaced and appended pairs
+ * are encoded with charset of parser. Keys are matched after flags of parser are applied,
+ * ignoring case if parser has CASE_INSENSITIVE_KEYS flag.
+ * <br>
+ * If parser trims white space around separators, white space around copied parts
+ * is dropped and pairs are separated like "a=1; b=2", so removing a pair does not
+ * leave its white space behind.
+ * <br>
+ * Removing is checked before replacing. Instances are immutable.
+ */
+public class QueryRewriter {
+    private static final String UNENCODED_CHARACTERS = "/?:@-._~!$'()*+,;";
+
+    private final QueryParser parser;
+    private final Set<String> removedKeys;
+    private final List<String> removedPrefixes;
+    private final Map<String, String> replacedValues;
+    private final List<Pair<String, String>> appendedPairs;
+
+    /**
+     * Called from builder
+     */
+    QueryRewriter(QueryParser parser, Set<String> removedKeys, List<String> removedPrefixes,
+                  Map<String, String> replacedValues, List<Pair<String, String>> appendedPairs) {
+        this.parser = parser;
+        if (parser.containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS)) {
+            Map<String, Boolean> removed = new CaseInsensitiveMap<>();
+            for (String key : removedKeys)
+                removed.put(key, Boolean.TRUE);
+            Map<String, String> replaced = new CaseInsensitiveMap<>();
+            replaced.putAll(replacedValues);
+
+            this.removedKeys = Collections.unmodifiableSet(removed.keySet());
+            this.replacedValues = Collections.unmodifiableMap(replaced);
+        } else {
+            this.removedKeys = Collections.unmodifiableSet(new HashSet<>(removedKeys));
+            this.replacedValues = Collections.unmodifiableMap(new HashMap<>(replacedValues));
+        }
+        this.removedPrefixes = Collections.unmodifiableList(new ArrayList<>(removedPrefixes));
+        this.appendedPairs = Collections.unmodifiableList(new ArrayList<>(appendedPairs));
+    }
+
+    /**
+     * @param parser parser which checks query strings and processes keys
+     * @return builder of rewriter
+     * @throws NullPointerException if <tt>parser</tt> is null
+     */
+    public static QueryRewriterBuilder builder(QueryParser parser) {
+        if (parser == null)
+            throw new NullPointerException("parser should not be null");
+        return new QueryRewriterBuilder(parser);
+    }
+
+    /**
+     * Percent encodes a decoded key or value, characters which are valid
+     * in a query and are not separators of parser or '%' are kept as they are.
+     * Other characters are encoded with charset of parser.
+     *
+     * @param str  decoded string
+     * @param sink output
+     */
+    private void encode(String str, Sink sink) {
+        Charset charset = parser.getCharset();
+        Delimiters delimiters = parser.getDelimiters();
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || UNENCODED_CHARACTERS.indexOf(c) != -1)
+                    && !delimiters.isSeparator(c)) {
+                sink.append(c);
+                continue;
+            }
+
+            int codePoint = Character.codePointAt(str, i);
+            if (Character.isSupplementaryCodePoint(codePoint))
+                i++;
+            for (byte b : new String(Character.toChars(codePoint)).getBytes(charset)) {
+                sink.append('%');
+                sink.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+                sink.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+            }
+        }
+    }
+
+    /**
+     * @param query query string
+     * @return rewritten query string
+     * @throws NullPointerException     if <tt>query</tt> is null
+     * @throws IllegalArgumentException if parser does not accept <tt>query</tt>
+     */
+    public String rewrite(String query) {
+        StringBuilder builder = new StringBuilder(query == null ? 0 : query.length());
+        rewrite(query, builder);
+        return builder.toString();
+    }
+
+    /**
+     * Appends rewritten query to <tt>out</tt>
+     *
+     * @param query query string
+     * @param out   output
+     * @throws NullPointerException     if an argument is null
+     * @throws IllegalArgumentException if parser does not accept <tt>query</tt>
+     */
+    public void rewrite(String query, StringBuilder out) {
+        if (out == null)
+            throw new NullPointerException("out should not be null");
+        rewrite(query, new StringBuilderSink(out));
+    }
+
+    /**
+     * Writes rewritten query to <tt>out</tt> at its position,
+     * all characters of output are ASCII so each one is written as a byte.
+     *
+     * @param query query string
+     * @param out   output
+     * @throws NullPointerException             if an argument is null
+     * @throws IllegalArgumentException         if parser does not accept <tt>query</tt>
+     * @throws java.nio.BufferOverflowException if <tt>out</tt> does not have enough room
+     */
+    public void rewrite(String query, ByteBuffer out) {
+        if (out == null)
+            throw new NullPointerException("out should not be null");
+        rewrite(query, new ByteBufferSink(out));
+    }
+
+    private void rewrite(String query, Sink sink) {
+        parser.checkPreconditions(query);
+
+        QueryScanner scanner = new QueryScanner(query, parser.getDelimiters());
+        boolean written = false;
+        int copyStart = -1;
+        int copyEnd = -1;
+
+        while (scanner.next()) {
+            String key = keyOf(query, scanner);
+            Action action = actionOf(key);
+            if (action == Action.KEEP) {
+                if (copyStart == -1)
+                    copyStart = copyStartOf(scanner);
+                copyEnd = copyEndOf(scanner);
+                continue;
+            }
+
+            if (copyStart != -1) {
+                written = copy(sink, written, query, copyStart, copyEnd);
+                copyStart = -1;
+            }
+
+            if (action == Action.REPLACE) {
+                written = separate(sink, written);
+                String value = replacedValues.get(key);
+                sink.append(query, scanner.keyStart(), scanner.keyEnd());
+                if (value != null) {
+                    sink.append(parser.getKeyValueSeparator());
+                    encode(value, sink);
+                }
+            }
+        }
+
+        if (copyStart != -1)
+            written = copy(sink, written, query, copyStart, copyEnd);
+
+        for (Pair<String, String> pair : appendedPairs) {
+            written = separate(sink, written);
+            encode(pair.getKey(), sink);
+            if (pair.getValue() != null) {
+                sink.append(parser.getKeyValueSeparator());
+                encode(pair.getValue(), sink);
+            }
+        }
+    }
+
+    /**
+     * Writes canonical pair separator of parser ('&amp;' by default) if something is written before
+     *
+     * @return true
+     */
+    private boolean separate(Sink sink, boolean written) {
+        if (written) {
+            String separator = parser.getDelimiters().getCanonicalPairSeparator();
+            sink.append(separator, 0, separator.length());
+        }
+        return true;
+    }
+
+    /**
+     * Writes a run of kept parts, an empty run (like the single empty part
+     * of an empty query) writes nothing, not even a separator
+     *
+     * @return true if something is written before or now
+     */
+    private boolean copy(Sink sink, boolean written, String query, int start, int end) {
+        if (start == end)
+            return written;
+        written = separate(sink, written);
+        sink.append(query, start, end);
+        return written;
+    }
+
+    /**
+     * @return start index of current part without white space which is trimmed by parser
+     */
+    private int copyStartOf(QueryScanner scanner) {
+        return parser.getDelimiters().isTrimmingWhiteSpace() ? scanner.keyStart() : scanner.partStart();
+    }
+
+    /**
+     * @return end index of current part without white space which is trimmed by parser
+     */
+    private int copyEndOf(QueryScanner scanner) {
+        if (!parser.getDelimiters().isTrimmingWhiteSpace())
+            return scanner.partEnd();
+        return scanner.hasValue() ? scanner.valueEnd() : scanner.keyEnd();
+    }
+
+    /**
+     * @return key of current part after flags are applied
+     */
+    private String keyOf(String query, QueryScanner scanner) {
+        String key = query.substring(scanner.keyStart(), scanner.keyEnd());
+        return QueryScanner.isVerbatim(query, scanner.keyStart(), scanner.keyEnd()) ? key : parser.normalizeKey(key);
+    }
+
+    private Action actionOf(String key) {
+        if (removedKeys.contains(key))
+            return Action.REMOVE;
+        boolean ignoreCase = parser.containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS);
+        for (String prefix : removedPrefixes)
+            if (key.regionMatches(ignoreCase, 0, prefix, 0, prefix.length()))
+                return Action.REMOVE;
+
+        if (replacedValues.containsKey(key))
+            return Action.REPLACE;
+        return Action.KEEP;
+    }
+
+    private enum Action {
+        KEEP, REMOVE, REPLACE
+    }
+
+    /**
+     * Output of rewriter
+     */
+    private interface Sink {
+        void append(CharSequence str, int start, int end);
+
+        void append(char c);
+    }
+
+    private static class StringBuilderSink implements Sink {
+        private final StringBuilder builder;
+
+        StringBuilderSink(StringBuilder builder) {
+            this.builder = builder;
+        }
+
+        @Override
+        public void append(CharSequence str, int start, int end) {
+            builder.append(str, start, end);
+        }
+
+        @Override
+        public void append(char c) {
+            builder.append(c);
+        }
+    }
+
+    private static class ByteBufferSink implements Sink {
+        private final ByteBuffer buffer;
+
+        ByteBufferSink(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void append(CharSequence str, int start, int end) {
+            for (int i = start; i < end; i++)
+                buffer.put((byte) str.charAt(i));
+        }
+
+        @Override
+        public void append(char c) {
+            buffer.put((byte) c);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.fatulm.query;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builder class for QueryRewriter
+ */
+public class QueryRewriterBuilder {
+    private final QueryParser parser;
+    private final Set<String> removedKeys = new HashSet<>();
+    private final List<String> removedPrefixes = new ArrayList<>();
+    private final Map<String, String> replacedValues = new LinkedHashMap<>();
+    private final List<Pair<String, String>> appendedPairs = new ArrayList<>();
+
+    /**
+     * Called from QueryRewriter.builder()
+     */
+    QueryRewriterBuilder(QueryParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * @throws NullPointerException if <tt>key</tt> is null
+     */
+    private static void checkKeyNonNull(String key) {
+        if (key == null)
+            throw new NullPointerException("key should not be null");
+    }
+
+    /**
+     * Removes all pairs with <tt>key</tt>
+     *
+     * @param key decoded key
+     * @return this
+     * @throws NullPointerException if <tt>key</tt> is null
+     */
+    public QueryRewriterBuilder remove(String key) {
+        checkKeyNonNull(key);
+        removedKeys.add(key);
+        return this;
+    }
+
+    /**
+     * Removes all pairs which key starts with <tt>prefix</tt>,
+     * for example "utm_" removes utm_source and utm_medium
+     *
+     * @param prefix decoded key prefix
+     * @return this
+     * @throws NullPointerException if <tt>prefix</tt> is null
+     */
+    public QueryRewriterBuilder removePrefix(String prefix) {
+        checkKeyNonNull(prefix);
+        removedPrefixes.add(prefix);
+        return this;
+    }
+
+    /**
+     * Replaces value of all pairs with <tt>key</tt>, pairs keep their position.
+     * Can be used for redacting secrets.
+     *
+     * @param key   decoded key
+     * @param value new decoded value or null for a pair without '='
+     * @return this
+     * @throws NullPointerException if <tt>key</tt> is null
+     */
+    public QueryRewriterBuilder replace(String key, String value) {
+        checkKeyNonNull(key);
+        replacedValues.put(key, value);
+        return this;
+    }
+
+    /**
+     * Appends a pair to the end of query
+     *
+     * @param key   decoded key
+     * @param value decoded value or null for a pair without '='
+     * @return this
+     * @throws NullPointerException if <tt>key</tt> is null
+     */
+    public QueryRewriterBuilder append(String key, String value) {
+        checkKeyNonNull(key);
+        appendedPairs.add(new Pair<>(key, value));
+        return this;
+    }
+
+    /**
+     * @return query rewriter with added rules
+     */
+    public QueryRewriter build() {
+        return new QueryRewriter(parser, removedKeys, removedPrefixes, replacedValues, appendedPairs);
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.fatulm.query;
+
+/**
+ * Cursor over parts of a raw query string.
+ * Each call to {@link #next()} moves to the next part between pair separators
+ * ('&amp;' by default) and finds bounds of its key and value, nothing is copied.
+ * Structure of query should be checked before scanning.
+ */
+class QueryScanner {
+    private final CharSequence query;
+    private final int end;
+    private final Delimiters delimiters;
+
+    private int partStart;
+    private int partEnd;
+    private int keyStart;
+    private int keyEnd;
+    private int valueStart;
+    private int valueEnd;
+    private int equalsIndex;
+    private boolean finished;
+
+    /**
+     * @param query      query string
+     * @param from       start index (inclusive)
+     * @param to         end index (exclusive)
+     * @param delimiters separators of query
+     */
+    QueryScanner(CharSequence query, int from, int to, Delimiters delimiters) {
+        this.query = query;
+        this.end = to;
+        this.delimiters = delimiters;
+        this.partEnd = from - 1;
+    }
+
+    /**
+     * @param query      query string
+     * @param delimiters separators of query
+     */
+    QueryScanner(CharSequence query, Delimiters delimiters) {
+        this(query, 0, query.length(), delimiters);
+    }
+
+    /**
+     * Moves to the next part
+     *
+     * @return false if there is no more parts
+     */
+    boolean next() {
+        if (finished)
+            return false;
+
+        partStart = partEnd + 1;
+        equalsIndex = -1;
+
+        int i = delimiters.indexOfPairSeparator(query, partStart, end);
+        if (i == -1)
+            i = end;
+
+        equalsIndex = ScanUtils.indexOf(query, delimiters.getKeyValueSeparator(), partStart, i);
+        partEnd = i;
+        finished = i == end;
+
+        keyStart = partStart;
+        keyEnd = equalsIndex == -1 ? partEnd : equalsIndex;
+        valueStart = equalsIndex + 1;
+        valueEnd = partEnd;
+        if (delimiters.isTrimmingWhiteSpace())
+            trim();
+        return true;
+    }
+
+    /**
+     * Moves bounds of key and value to exclude white space at their start and end
+     */
+    private void trim() {
+        while (keyStart < keyEnd && TextUtils.isWhiteSpace(query.charAt(keyStart)))
+            keyStart++;
+        while (keyEnd > keyStart && TextUtils.isWhiteSpace(query.charAt(keyEnd - 1)))
+            keyEnd--;
+
+        if (equalsIndex == -1)
+            return;
+        while (valueStart < valueEnd && TextUtils.isWhiteSpace(query.charAt(valueStart)))
+            valueStart++;
+        while (valueEnd > valueStart && TextUtils.isWhiteSpace(query.charAt(valueEnd - 1)))
+            valueEnd--;
+    }
+
+    /**
+     * @return start index of current part
+     */
+    int partStart() {
+        return partStart;
+    }
+
+    /**
+     * @return end index (exclusive) of current part
+     */
+    int partEnd() {
+        return partEnd;
+    }
+
+    /**
+     * @return start index of key of current part
+     */
+    int keyStart() {
+        return keyStart;
+    }
+
+    /**
+     * @return end index (exclusive) of key of current part
+     */
+    int keyEnd() {
+        return keyEnd;
+    }
+
+    /**
+     * @return true if current part has key value separator (its value is not null)
+     */
+    boolean hasValue() {
+        return equalsIndex != -1;
+    }
+
+    /**
+     * @return start index of value of current part, only valid if it has value
+     */
+    int valueStart() {
+        return valueStart;
+    }
+
+    /**
+     * @return end index (exclusive) of value of current part
+     */
+    int valueEnd() {
+        return valueEnd;
+    }
+
+    /**
+     * Checks if a range needs no processing by flags,
+     * so it is equal to its processed form.
+     *
+     * @param str   input
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return true if range has no encoded character and no white space
+     */
+    static boolean isVerbatim(CharSequence str, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (c == '%' || Character.isWhitespace(c))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if range of <tt>str</tt> is equal to <tt>other</tt>
+     */
+    static boolean rangeEquals(CharSequence str, int start, int end, String other) {
+        if (end - start != other.length())
+            return false;
+        for (int i = start; i < end; i++)
+            if (str.charAt(i) != other.charAt(i - start))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if range of <tt>str</tt> is equal to <tt>other</tt> ignoring case
+     * @see CaseInsensitiveMap#fold(char)
+     */
+    static boolean rangeEqualsIgnoreCase(CharSequence str, int start, int end, String other) {
+        if (end - start != other.length())
+            return false;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            char d = other.charAt(i - start);
+            if (c != d && CaseInsensitiveMap.fold(c) != CaseInsensitiveMap.fold(d))
+                return false;
+        }
+        return true;
+    }
+}
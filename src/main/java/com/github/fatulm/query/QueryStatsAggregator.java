@@ -0,0 +1,416 @@
+package com.github.fatulm.query;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates statistics of parameters of parsed query strings.
+ * For each key it counts occurrences, queries containing it and null values,
+ * estimates number of distinct values (HyperLogLog) and keeps most frequent
+ * values (Space-Saving).
+ * <br>
+ * Many threads can record queries at the same time. Counters are {@link LongAdder}s,
+ * keys are kept in a {@link ConcurrentHashMap} and sketches are updated with
+ * compare and set. Only replacing a top value candidate locks, and then only the
+ * statistics of that key.
+ * <br>
+ * Number of keys is bounded, pairs of keys which do not fit are only counted.
+ * Distinct value counts and top values are approximate.
+ * <br>
+ * If parser has CASE_INSENSITIVE_KEYS flag, keys which are equal ignoring case
+ * share statistics, which are reported with the first spelling that is recorded.
+ */
+public class QueryStatsAggregator {
+    private static final int HLL_PRECISION = 10;
+    private static final int HLL_REGISTERS = 1 << HLL_PRECISION;
+    private static final int CANDIDATES_PER_TOP_VALUE = 4;
+
+    private final QueryParser parser;
+    private final int maxKeys;
+    private final int topValues;
+    private final boolean caseInsensitive;
+
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder droppedPairs = new LongAdder();
+    private final ConcurrentHashMap<String, KeyStats> keys = new ConcurrentHashMap<>();
+
+    /**
+     * @param parser    parser which is used for recording query strings
+     * @param maxKeys   maximum number of keys which statistics are kept for
+     * @param topValues number of most frequent values which are kept for each key
+     * @throws NullPointerException     if <tt>parser</tt> is null
+     * @throws IllegalArgumentException if <tt>maxKeys</tt> or <tt>topValues</tt> is not positive
+     */
+    public QueryStatsAggregator(QueryParser parser, int maxKeys, int topValues) {
+        if (parser == null)
+            throw new NullPointerException("parser should not be null");
+        if (maxKeys <= 0)
+            throw new IllegalArgumentException("maxKeys should be positive");
+        if (topValues <= 0)
+            throw new IllegalArgumentException("topValues should be positive");
+
+        this.parser = parser;
+        this.maxKeys = maxKeys;
+        this.topValues = topValues;
+        this.caseInsensitive = parser.containsFlag(QueryParserFlag.CASE_INSENSITIVE_KEYS);
+    }
+
+    /**
+     * 64 bit hash of a string (FNV-1a and a final mix)
+     *
+     * @param str input string
+     * @return hash
+     */
+    private static long hash(String str) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < str.length(); i++) {
+            h ^= str.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Parses query string and records all of its pairs.
+     * MERGE_VALUES flag of parser has no effect here.
+     *
+     * @param query query string
+     * @throws NullPointerException     if <tt>query</tt> is null
+     * @throws IllegalArgumentException if parser does not accept <tt>query</tt>
+     */
+    public void record(String query) {
+        Set<String> seen = new HashSet<>();
+
+        parser.forEachPair(query, (key, value) -> {
+            KeyStats stats = statsOf(key);
+            if (stats == null) {
+                droppedPairs.increment();
+                return;
+            }
+
+            if (seen.add(stats.key))
+                stats.queries.increment();
+            stats.record(value, 1);
+        });
+
+        queries.increment();
+    }
+
+    /**
+     * Adds all statistics of <tt>other</tt> to this aggregator.
+     * <tt>other</tt> can be recorded at the same time but then
+     * only part of its concurrent records may be merged.
+     *
+     * @param other another aggregator
+     * @throws NullPointerException if <tt>other</tt> is null
+     */
+    public void merge(QueryStatsAggregator other) {
+        if (other == null)
+            throw new NullPointerException("other should not be null");
+
+        queries.add(other.queries.sum());
+        droppedPairs.add(other.droppedPairs.sum());
+
+        for (KeyStats otherStats : other.keys.values()) {
+            KeyStats stats = statsOf(otherStats.key);
+            if (stats == null)
+                droppedPairs.add(otherStats.occurrences.sum());
+            else
+                stats.merge(otherStats);
+        }
+    }
+
+    /**
+     * Clears all statistics
+     */
+    public void reset() {
+        keys.clear();
+        queries.reset();
+        droppedPairs.reset();
+    }
+
+    /**
+     * @return immutable snapshot of current statistics
+     */
+    public Snapshot snapshot() {
+        Map<String, KeySnapshot> map = caseInsensitive ? new CaseInsensitiveMap<>() : new LinkedHashMap<>();
+        for (KeyStats stats : keys.values())
+            map.put(stats.key, stats.snapshot(topValues));
+
+        return new Snapshot(queries.sum(), droppedPairs.sum(), Collections.unmodifiableMap(map));
+    }
+
+    /**
+     * @param key key
+     * @return statistics of key or null if there is no room for a new key
+     */
+    private KeyStats statsOf(String key) {
+        // keys are folded with the same fold as case insensitive maps of parser
+        String lookupKey = caseInsensitive ? CaseInsensitiveMap.fold(key) : key;
+        KeyStats stats = keys.get(lookupKey);
+        if (stats != null)
+            return stats;
+
+        // size is only an estimate under contention, so a few more keys may be kept
+        if (keys.size() >= maxKeys)
+            return null;
+
+        return keys.computeIfAbsent(lookupKey, k -> new KeyStats(key, topValues * CANDIDATES_PER_TOP_VALUE));
+    }
+
+    /**
+     * Mutable statistics of a single key
+     */
+    private static class KeyStats {
+        private final LongAdder occurrences = new LongAdder();
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder nullValues = new LongAdder();
+        // four 8 bit HyperLogLog registers are packed in each int
+        private final AtomicIntegerArray registers = new AtomicIntegerArray(HLL_REGISTERS / 4);
+        private final ConcurrentHashMap<String, LongAdder> candidates = new ConcurrentHashMap<>();
+        private final String key;
+        private final int maxCandidates;
+
+        KeyStats(String key, int maxCandidates) {
+            this.key = key;
+            this.maxCandidates = maxCandidates;
+        }
+
+        /**
+         * @param value value, can be null
+         * @param count number of times value is seen
+         */
+        void record(String value, long count) {
+            occurrences.add(count);
+
+            if (value == null) {
+                nullValues.add(count);
+                return;
+            }
+
+            long h = hash(value);
+            int index = (int) (h >>> (64 - HLL_PRECISION));
+            int rank = Long.numberOfLeadingZeros((h << HLL_PRECISION) | (1L << (HLL_PRECISION - 1))) + 1;
+            updateRegister(index, rank);
+
+            addCandidate(value, count);
+        }
+
+        /**
+         * Sets register to <tt>rank</tt> if it is greater than current value
+         */
+        private void updateRegister(int index, int rank) {
+            int slot = index >>> 2;
+            int shift = (index & 3) * 8;
+
+            while (true) {
+                int packed = registers.get(slot);
+                if (((packed >>> shift) & 0xFF) >= rank)
+                    return;
+
+                int updated = (packed & ~(0xFF << shift)) | (rank << shift);
+                if (registers.compareAndSet(slot, packed, updated))
+                    return;
+            }
+        }
+
+        private int register(int index) {
+            return (registers.get(index >>> 2) >>> ((index & 3) * 8)) & 0xFF;
+        }
+
+        /**
+         * Space-Saving update: known values are counted without locking,
+         * when table is full the least frequent candidate is replaced.
+         */
+        private void addCandidate(String value, long count) {
+            LongAdder counter = candidates.get(value);
+            if (counter == null && candidates.size() < maxCandidates)
+                counter = candidates.computeIfAbsent(value, v -> new LongAdder());
+
+            if (counter != null) {
+                counter.add(count);
+                return;
+            }
+
+            synchronized (this) {
+                counter = candidates.get(value);
+                if (counter == null) {
+                    String minValue = null;
+                    long min = Long.MAX_VALUE;
+                    for (Map.Entry<String, LongAdder> entry : candidates.entrySet()) {
+                        long sum = entry.getValue().sum();
+                        if (sum < min) {
+                            min = sum;
+                            minValue = entry.getKey();
+                        }
+                    }
+
+                    counter = new LongAdder();
+                    if (minValue != null) {
+                        candidates.remove(minValue);
+                        counter.add(min);
+                    }
+                    candidates.put(value, counter);
+                }
+            }
+            counter.add(count);
+        }
+
+        void merge(KeyStats other) {
+            occurrences.add(other.occurrences.sum());
+            queries.add(other.queries.sum());
+            nullValues.add(other.nullValues.sum());
+
+            for (int i = 0; i < HLL_REGISTERS; i++) {
+                int rank = other.register(i);
+                if (rank != 0)
+                    updateRegister(i, rank);
+            }
+
+            for (Map.Entry<String, LongAdder> entry : other.candidates.entrySet())
+                addCandidate(entry.getKey(), entry.getValue().sum());
+        }
+
+        /**
+         * @return HyperLogLog estimate of distinct non null values
+         */
+        long distinctValues() {
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < HLL_REGISTERS; i++) {
+                int rank = register(i);
+                sum += 1.0 / (1L << rank);
+                if (rank == 0)
+                    zeros++;
+            }
+
+            double m = HLL_REGISTERS;
+            double estimate = 0.7213 / (1 + 1.079 / m) * m * m / sum;
+            if (estimate <= 2.5 * m && zeros != 0)
+                estimate = m * Math.log(m / zeros);
+
+            return Math.round(estimate);
+        }
+
+        KeySnapshot snapshot(int topValues) {
+            List<Map.Entry<String, Long>> top = new ArrayList<>();
+            for (Map.Entry<String, LongAdder> entry : candidates.entrySet())
+                top.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().sum()));
+
+            top.sort((e1, e2) -> Long.compare(e2.getValue(), e1.getValue()));
+            if (top.size() > topValues)
+                top = new ArrayList<>(top.subList(0, topValues));
+
+            return new KeySnapshot(occurrences.sum(), queries.sum(), nullValues.sum(),
+                    distinctValues(), Collections.unmodifiableList(top));
+        }
+    }
+
+    /**
+     * Immutable statistics of all keys at some moment
+     */
+    public static class Snapshot {
+        private final long queries;
+        private final long droppedPairs;
+        private final Map<String, KeySnapshot> keys;
+
+        Snapshot(long queries, long droppedPairs, Map<String, KeySnapshot> keys) {
+            this.queries = queries;
+            this.droppedPairs = droppedPairs;
+            this.keys = keys;
+        }
+
+        /**
+         * @return number of recorded query strings
+         */
+        public long getQueries() {
+            return queries;
+        }
+
+        /**
+         * @return number of pairs which were not kept because there were too many keys
+         */
+        public long getDroppedPairs() {
+            return droppedPairs;
+        }
+
+        /**
+         * @return unmodifiable map of keys to their statistics
+         */
+        public Map<String, KeySnapshot> getKeys() {
+            return keys;
+        }
+    }
+
+    /**
+     * Immutable statistics of a single key at some moment
+     */
+    public static class KeySnapshot {
+        private final long occurrences;
+        private final long queries;
+        private final long nullValues;
+        private final long distinctValues;
+        private final List<Map.Entry<String, Long>> topValues;
+
+        KeySnapshot(long occurrences, long queries, long nullValues, long distinctValues,
+                    List<Map.Entry<String, Long>> topValues) {
+            this.occurrences = occurrences;
+            this.queries = queries;
+            this.nullValues = nullValues;
+            this.distinctValues = distinctValues;
+            this.topValues = topValues;
+        }
+
+        /**
+         * @return number of pairs with this key
+         */
+        public long getOccurrences() {
+            return occurrences;
+        }
+
+        /**
+         * @return number of query strings which contain this key
+         */
+        public long getQueries() {
+            return queries;
+        }
+
+        /**
+         * @return number of pairs with this key and null value
+         */
+        public long getNullValues() {
+            return nullValues;
+        }
+
+        /**
+         * @return estimated number of distinct non null values
+         */
+        public long getDistinctValues() {
+            return distinctValues;
+        }
+
+        /**
+         * Counts can be over estimated when there are many distinct values.
+         *
+         * @return most frequent values and their counts in descending order
+         */
+        public List<Map.Entry<String, Long>> getTopValues() {
+            return topValues;
+        }
+    }
+}
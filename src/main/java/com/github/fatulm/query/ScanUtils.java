@@ -0,0 +1,70 @@
+package com.github.fatulm.query;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Scanning loops which have faster versions on newer JDKs.
+ * This is the Java 8 version, on JDK 17 and later the multi release jar
+ * uses the version in src/main/java17 instead. Both versions should
+ * give the same results.
+ */
+class ScanUtils {
+    /**
+     * System property which enables incubator Vector API in JDK 17 version,
+     * module jdk.incubator.vector should be added too
+     */
+    static final String VECTOR_PROPERTY = "com.github.fatulm.query.vector";
+
+    private ScanUtils() {
+    }
+
+    /**
+     * @return name of used version: "java8", "java17" or "java17-vector"
+     */
+    static String variant() {
+        return "java8";
+    }
+
+    /**
+     * @param str   input
+     * @param c     character which is searched
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return index of first <tt>c</tt> in range or -1
+     */
+    static int indexOf(CharSequence str, char c, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (str.charAt(i) == c)
+                return i;
+        return -1;
+    }
+
+    /**
+     * @param bytes input
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return true if all bytes of range are ASCII
+     */
+    static boolean isAscii(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++)
+            if (bytes[i] < 0)
+                return false;
+        return true;
+    }
+
+    /**
+     * @param buffer buffer which is compared (its position is not used)
+     * @param offset start index in buffer
+     * @param length length of range in buffer
+     * @param bytes  bytes which are compared
+     * @return true if range of buffer is equal to <tt>bytes</tt>
+     */
+    static boolean rangeEquals(ByteBuffer buffer, int offset, int length, byte[] bytes) {
+        if (length != bytes.length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (buffer.get(offset + i) != bytes[i])
+                return false;
+        return true;
+    }
+}
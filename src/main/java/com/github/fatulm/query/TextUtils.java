@@ -11,38 +11,113 @@ class TextUtils {
     }
 
     /**
-     * has some differences with {@link String#split(String)}
+     * Splits a range of a string to chunks which are at least <tt>chunkSize</tt>
+     * long (except the last one). Chunks end right before a splitter character
+     * and the splitter itself is not included in any chunk.
      *
-     * @param str string which we want to split
-     * @param c   splitter
-     * @return list of  parts
+     * @param str        string which we want to split
+     * @param separators splitters, each one of them ends a chunk
+     * @param from       start index (inclusive)
+     * @param to         end index (exclusive)
+     * @param chunkSize  minimum size of each chunk, should be positive
+     * @return list of start (inclusive) and end (exclusive) of chunks
      */
-    public static List<String> stringSplit(String str, char c) {
-        List<String> output = new ArrayList<>();
+    public static List<Pair<Integer, Integer>> splitChunks(CharSequence str, String separators, int from, int to,
+                                                           int chunkSize) {
+        List<Pair<Integer, Integer>> output = new ArrayList<>();
 
-        stringSplit0(str, c, output);
+        int start = from;
+        int index = start + chunkSize;
+        while (index < to) {
+            if (separators.indexOf(str.charAt(index)) != -1) {
+                output.add(new Pair<>(start, index));
+                start = index + 1;
+                index = start + chunkSize;
+            } else {
+                index++;
+            }
+        }
+        output.add(new Pair<>(start, to));
 
         return output;
     }
 
     /**
-     * @param str      string which we want to split
-     * @param splitter splitter character including only one character
-     * @param array    list of parts
+     * Finds a character in a range of a char sequence
+     *
+     * @param str   input
+     * @param c     character
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return index of first <tt>c</tt> in range or -1
+     */
+    public static int indexOf(CharSequence str, char c, int start, int end) {
+        return ScanUtils.indexOf(str, c, start, end);
+    }
+
+    /**
+     * Same as {@link String#substring(int, int)} for char sequences
+     *
+     * @param str   input
+     * @param start start index (inclusive)
+     * @param end   end index (exclusive)
+     * @return string of range
      */
-    private static void stringSplit0(String str, char splitter, List<String> array) {
-        int index = str.indexOf(splitter);
+    public static String substring(CharSequence str, int start, int end) {
+        if (str instanceof String)
+            return ((String) str).substring(start, end);
+        return str.subSequence(start, end).toString();
+    }
 
-        if (index == -1) {
-            array.add(str);
-            return;
+    /**
+     * Same as {@link Character#isWhitespace(char)} but only for characters
+     * of regex <tt>\s</tt>: space, \t, \n, \u000B, \f and \r
+     *
+     * @param c character
+     * @return true if it is a white space character
+     */
+    public static boolean isWhiteSpace(char c) {
+        switch (c) {
+            case ' ':
+            case '\t':
+            case '\n':
+            case '\u000B':
+            case '\f':
+            case '\r':
+                return true;
+            default:
+                return false;
         }
+    }
 
-        String first = (index == 0) ? "" : str.substring(0, index);
-        String second = (index == str.length() - 1) ? "" : str.substring(index + 1);
+    /**
+     * Replaces each run of white space characters with a single space and trims
+     * the result, same as <tt>str.replaceAll("\\s+", " ").trim()</tt> without regex
+     *
+     * @param str input string
+     * @return collapsed string
+     */
+    public static String collapseWhiteSpace(String str) {
+        int index = 0;
+        while (index < str.length() && !isWhiteSpace(str.charAt(index)))
+            index++;
+        if (index == str.length())
+            return str.trim();
 
-        array.add(first);
-        stringSplit0(second, splitter, array);
+        StringBuilder builder = new StringBuilder(str.length());
+        builder.append(str, 0, index);
+        boolean inWhiteSpace = false;
+        for (int i = index; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (!isWhiteSpace(c)) {
+                builder.append(c);
+                inWhiteSpace = false;
+            } else if (!inWhiteSpace) {
+                builder.append(' ');
+                inWhiteSpace = true;
+            }
+        }
+        return builder.toString().trim();
     }
 
     /**
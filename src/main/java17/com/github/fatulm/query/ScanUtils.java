@@ -0,0 +1,94 @@
+package com.github.fatulm.query;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * JDK 17 version of scanning loops, see the Java 8 version for contracts.
+ * <br>
+ * Bytes are checked eight at a time through a long view of byte arrays.
+ * Delimiters are searched with a plain loop for the first {@link #SHORT_SCAN}
+ * characters, most keys and values are shorter and the loop beats an intrinsic call
+ * for them. Longer strings continue with {@link String#indexOf(int, int)}, an intrinsic
+ * working on the Latin-1 bytes of compact strings, if the range reaches the end of
+ * the string or is followed by at most {@link #MAX_OVERSCAN} characters (like
+ * " HTTP/1.1" after the query of a request line). Other ranges and char sequences
+ * stay on the loop: backing bytes of strings are not accessible, so they can not
+ * be read a word at a time.
+ * Byte ranges are compared eight bytes at a time with absolute
+ * {@link ByteBuffer#getLong(int)} against a long view in the buffer's order,
+ * so no slice or wrapper buffer is allocated.
+ * If {@link #VECTOR_PROPERTY} is true and jdk.incubator.vector is added,
+ * bytes are classified with Vector API instead.
+ */
+class ScanUtils {
+    static final String VECTOR_PROPERTY = "com.github.fatulm.query.vector";
+
+    private static final int SHORT_SCAN = 16;
+    private static final int MAX_OVERSCAN = 64;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle BIG_ENDIAN_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final boolean VECTOR = Boolean.getBoolean(VECTOR_PROPERTY)
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private ScanUtils() {
+    }
+
+    static String variant() {
+        return VECTOR ? "java17-vector" : "java17";
+    }
+
+    static int indexOf(CharSequence str, char c, int start, int end) {
+        int shortEnd = end - start <= SHORT_SCAN ? end : start + SHORT_SCAN;
+        for (int i = start; i < shortEnd; i++)
+            if (str.charAt(i) == c)
+                return i;
+        if (shortEnd == end)
+            return -1;
+
+        // String.indexOf can not be bounded before JDK 21, so it is only used
+        // when range ends near end of string, otherwise it could scan far after range
+        if (str instanceof String && str.length() - end <= MAX_OVERSCAN) {
+            int index = ((String) str).indexOf(c, shortEnd);
+            return index < end ? index : -1;
+        }
+
+        for (int i = shortEnd; i < end; i++)
+            if (str.charAt(i) == c)
+                return i;
+        return -1;
+    }
+
+    static boolean isAscii(byte[] bytes, int start, int end) {
+        if (VECTOR)
+            return VectorScanUtils.isAscii(bytes, start, end);
+
+        int i = start;
+        for (; i + Long.BYTES <= end; i += Long.BYTES)
+            if (((long) LONGS.get(bytes, i) & HIGH_BITS) != 0)
+                return false;
+        for (; i < end; i++)
+            if (bytes[i] < 0)
+                return false;
+        return true;
+    }
+
+    static boolean rangeEquals(ByteBuffer buffer, int offset, int length, byte[] bytes) {
+        if (length != bytes.length)
+            return false;
+
+        VarHandle view = buffer.order() == ByteOrder.LITTLE_ENDIAN ? LONGS : BIG_ENDIAN_LONGS;
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES)
+            if (buffer.getLong(offset + i) != (long) view.get(bytes, i))
+                return false;
+        for (; i < length; i++)
+            if (buffer.get(offset + i) != bytes[i])
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,27 @@
+package com.github.fatulm.query;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of scanning loops, only loaded when
+ * {@link ScanUtils#VECTOR_PROPERTY} is true and jdk.incubator.vector is added
+ */
+class VectorScanUtils {
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    private VectorScanUtils() {
+    }
+
+    static boolean isAscii(byte[] bytes, int start, int end) {
+        int i = start;
+        for (int bound = start + SPECIES.loopBound(end - start); i < bound; i += SPECIES.length())
+            if (ByteVector.fromArray(SPECIES, bytes, i).compare(VectorOperators.LT, 0).anyTrue())
+                return false;
+        for (; i < end; i++)
+            if (bytes[i] < 0)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class DelimitersTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private static QueryParser cookieParser() {
+        return QueryParser.builder()
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .build();
+    }
+
+    private static Map<String, List<String>> map(String... keysAndValues) {
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2)
+            map.computeIfAbsent(keysAndValues[i], key -> new ArrayList<>()).add(keysAndValues[i + 1]);
+        return map;
+    }
+
+    @Test
+    public void whenDefaultThenAmpersandAndEquals() throws Exception {
+        QueryParser qp = QueryParser.builder().build();
+
+        assertThat(new String(qp.getPairSeparators()), is("&"));
+        assertThat(qp.getKeyValueSeparator(), is('='));
+        assertThat(qp.isTrimmingWhiteSpaceAroundSeparators(), is(false));
+        assertThat(qp.parse("a=1;b&c"), is(map("a", "1;b", "c", null)));
+    }
+
+    @Test
+    public void whenParsingCookieHeaderThenWhiteSpaceAroundSeparatorsIsTrimmed() throws Exception {
+        assertThat(cookieParser().parse("session=abc123; theme=dark ;  lang = en%20US ;flag; "),
+                is(map("session", "abc123", "theme", "dark", "lang", "en US", "flag", null)));
+    }
+
+    @Test
+    public void givenTrimmingWhenWhiteSpaceIsInsideValueThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string contains unencoded white space");
+        cookieParser().parse("a=1 2; b=3");
+    }
+
+    @Test
+    public void givenTrimmingAndWhiteSpaceIsValidWhenWhiteSpaceIsInsideValueThenItIsKept() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID)
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .build();
+
+        assertThat(qp.parse(" a = 1 2 ; b=3"), is(map("a", "1 2", "b", "3")));
+    }
+
+    @Test
+    public void whenParsingMatrixParametersThenSemicolonSeparatesPairs() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .pairSeparators(';')
+                .build();
+
+        assertThat(qp.parse("color=red;size=10&20;color=blue"),
+                is(map("color", "red", "size", "10&20", "color", "blue")));
+        Map<String, String> single = new LinkedHashMap<>();
+        single.put("k", "v");
+        single.put("w", null);
+        assertThat(qp.parseSingle("k=v;w"), is(single));
+    }
+
+    @Test
+    public void whenParsingKeyColonValueListThenColonSeparatesKeyAndValue() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .keyValueSeparator(':')
+                .pairSeparators(',')
+                .addFlags(QueryParserFlag.MERGE_VALUES)
+                .build();
+
+        assertThat(qp.parse("a:1,b:x=y,a:1,a:2"), is(map("a", "1", "a", "2", "b", "x=y")));
+    }
+
+    @Test
+    public void whenMoreThanOnePairSeparatorThenEachOneSeparatesPairs() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .pairSeparators('&', ';')
+                .build();
+
+        assertThat(qp.parse("a=1;b=2&c=3;;d"), is(map("a", "1", "b", "2", "c", "3", "d", null)));
+    }
+
+    @Test
+    public void whenPartHasTwoKeyValueSeparatorsThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        QueryParser.builder().keyValueSeparator(':').pairSeparators(',').build().parse("a:1:2,b:3");
+    }
+
+    @Test
+    public void whenSeparatorIsNotAllowedThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("separator should be one of !$&'()*+,/:;=?@");
+        QueryParser.builder().pairSeparators('a');
+    }
+
+    @Test
+    public void whenPairSeparatorIsKeyValueSeparatorThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("pair separator should not be key value separator");
+        QueryParser.builder().pairSeparators(';', '=');
+    }
+
+    @Test
+    public void whenKeyValueSeparatorIsPairSeparatorThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("pair separator should not be key value separator");
+        QueryParser.builder().keyValueSeparator('&');
+    }
+
+    @Test
+    public void whenNoPairSeparatorThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("pair separators should not be empty");
+        QueryParser.builder().pairSeparators();
+    }
+
+    @Test
+    public void whenParsingWithPrefixCacheOrInParallelThenResultIsSame() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++)
+            builder.append("key").append(i % 50).append(" = value").append(i).append(i % 2 == 0 ? "; " : ";");
+        String header = builder.toString();
+
+        Map<String, List<String>> expected = cookieParser().parse(header);
+        QueryParser cached = QueryParser.builder()
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .prefixCache(1000)
+                .build();
+        QueryParser parallel = QueryParser.builder()
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .parallelThreshold(1)
+                .build();
+
+        assertThat(expected.get("key7").size(), is(100));
+        assertThat(cached.parse(header), is(expected));
+        assertThat(cached.parse(header), is(expected));
+        assertThat(parallel.parse(header), is(expected));
+    }
+
+    @Test
+    public void whenRewritingThenSeparatorsOfParserAreWritten() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .keyValueSeparator(':')
+                .pairSeparators(',')
+                .build();
+        QueryRewriter rewriter = QueryRewriter.builder(qp)
+                .remove("b")
+                .replace("c", "x,y")
+                .append("d", "1:2")
+                .build();
+
+        assertThat(rewriter.rewrite("a:1,b:2,c:3"), is("a:1,c:x%2Cy,d:1%3A2"));
+    }
+
+    @Test
+    public void whenTestingPredicateThenSeparatorsOfParserAreUsed() throws Exception {
+        QueryPredicate predicate = QueryPredicate.compile(cookieParser(), "theme = dark and lang exists");
+
+        assertThat(predicate.test("session=abc; theme = dark; lang=en"), is(true));
+        assertThat(predicate.test("session=abc; theme=light; lang=en"), is(false));
+        assertThat(predicate.test("theme=dark&lang"), is(false));
+    }
+}
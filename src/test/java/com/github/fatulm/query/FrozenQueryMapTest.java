@@ -0,0 +1,207 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class FrozenQueryMapTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    @Test
+    public void whenFreezingThenMapIsEqualAndOrderIsSame() throws Exception {
+        Map<String, List<String>> parsed = QueryParser.builder().build()
+                .parse("b=2&a=1&b=3&empty=&flag&c=%20x");
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(parsed);
+
+        assertThat(frozen, is(parsed));
+        assertThat(parsed, is((Map<String, List<String>>) frozen));
+        assertThat(frozen.hashCode(), is(parsed.hashCode()));
+        assertThat(new ArrayList<>(frozen.keySet()), is(new ArrayList<>(parsed.keySet())));
+        assertThat(frozen.get("b"), contains("2", "3"));
+        assertThat(frozen.get("flag"), contains(nullValue()));
+        assertThat(frozen.get("empty"), contains(""));
+        assertThat(frozen.get("missing"), is(nullValue()));
+        assertThat(frozen.containsKey("c"), is(true));
+        assertThat(frozen.containsKey(1), is(false));
+    }
+
+    @Test
+    public void whenValuesAreLatin1ThenOneByteIsUsedForEachCharacter() throws Exception {
+        Map<String, List<String>> parsed = QueryParser.builder().build().parse("caf%C3%A9=cr%C3%A8me&b=1");
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(parsed);
+
+        assertThat(frozen.packedSize(), is("caf\u00e9cr\u00e8meb1".length()));
+        assertThat(frozen.get("caf\u00e9"), contains("cr\u00e8me"));
+        assertThat(frozen, is(parsed));
+    }
+
+    @Test
+    public void whenValuesAreNotLatin1ThenUtf8IsUsed() throws Exception {
+        Map<String, List<String>> parsed = QueryParser.builder().build()
+                .parse("price=%E2%82%AC5&%E2%82%AC=%F0%9F%98%80&caf%C3%A9=1");
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(parsed);
+
+        assertThat(frozen.packedSize(), is(5 + 4 + 3 + 4 + 5 + 1));
+        assertThat(frozen.get("price"), contains("\u20ac5"));
+        assertThat(frozen.get("\u20ac"), contains("\ud83d\ude00"));
+        assertThat(frozen.get("caf\u00e9"), contains("1"));
+        assertThat(frozen.get("\u20ad"), is(nullValue()));
+        assertThat(frozen, is(parsed));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenParsingFrozenThenLookupsIgnoreCase() throws Exception {
+        FrozenQueryMap frozen = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build()
+                .parseFrozen("Key=1&KEY=2&other=3");
+
+        assertThat(frozen.get("kEy"), contains("1", "2"));
+        assertThat(frozen.containsKey("OTHER"), is(true));
+        assertThat(frozen.keySet(), contains("Key", "other"));
+        assertThat(FrozenQueryMap.freeze(frozen).get("kEy"), is(nullValue()));
+    }
+
+    @Test
+    public void givenCaseInsensitiveUtf8KeysWhenGettingThenLookupsIgnoreCase() throws Exception {
+        // euro sign forces UTF-8, Kelvin sign and long s fold to ASCII
+        FrozenQueryMap frozen = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build()
+                .parseFrozen("price=%E2%82%AC5&%C3%89T%C3%89=1&Kelvin=2&%F0%9F%98%80A=3&mass=4");
+
+        assertThat(frozen.get("PRICE"), contains("\u20ac5"));
+        assertThat(frozen.get("\u00e9t\u00e9"), contains("1"));
+        assertThat(frozen.get("\u212aELVIN"), contains("2"));
+        assertThat(frozen.get("\ud83d\ude00a"), contains("3"));
+        assertThat(frozen.get("ma\u017fS"), contains("4"));
+        assertThat(frozen.get("\u00e9t"), is(nullValue()));
+        assertThat(frozen.get("\ud83d\ude01a"), is(nullValue()));
+
+        Map<String, List<String>> parsed = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build()
+                .parse("price=%E2%82%AC5&%C3%89T%C3%89=1&Kelvin=2&%F0%9F%98%80A=3&mass=4");
+        for (String key : new String[]{"PRICE", "\u00e9t\u00e9", "\u212aELVIN", "\ud83d\ude00a", "ma\u017fS", "x"})
+            assertThat(key, frozen.get(key), is(parsed.get(key)));
+    }
+
+    @Test
+    public void givenCaseSensitiveKeysWhenParsingFrozenThenLookupsDoNotIgnoreCase() throws Exception {
+        FrozenQueryMap frozen = QueryParser.builder().build().parseFrozen("Key=1&key=2");
+
+        assertThat(frozen.get("Key"), contains("1"));
+        assertThat(frozen.get("KEY"), is(nullValue()));
+    }
+
+    @Test
+    public void whenFreezingFrozenMapThenSameMapIsReturned() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse("a=1"));
+
+        assertThat(FrozenQueryMap.freeze(frozen), is(sameInstance(frozen)));
+    }
+
+    @Test
+    public void whenFreezingEmptyMapThenEmpty() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse(""));
+
+        assertThat(frozen.isEmpty(), is(true));
+        assertThat(frozen.packedSize(), is(0));
+        assertThat(frozen.get("a"), is(nullValue()));
+    }
+
+    @Test
+    public void whenMapIsNullThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("map should not be null");
+        FrozenQueryMap.freeze(null);
+    }
+
+    @Test
+    public void whenValueListIsNullThenThrowsNullPointerException() throws Exception {
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        map.put("a", null);
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("value list should not be null");
+        FrozenQueryMap.freeze(map);
+    }
+
+    @Test
+    public void whenGettingNullKeyThenThrowsNullPointerException() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse("a=1"));
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("key can not be null");
+        frozen.get(null);
+    }
+
+    @Test
+    public void whenValueIndexIsOutOfBoundsThenThrowsIndexOutOfBoundsException() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse("a=1&b=2"));
+
+        ex.expect(IndexOutOfBoundsException.class);
+        frozen.get("a").get(1);
+    }
+
+    @Test
+    public void whenChangingFrozenMapThenThrowsUnsupportedOperationException() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse("a=1"));
+
+        ex.expect(UnsupportedOperationException.class);
+        frozen.put("b", Arrays.asList("2"));
+    }
+
+    @Test
+    public void whenChangingValueListThenThrowsUnsupportedOperationException() throws Exception {
+        FrozenQueryMap frozen = FrozenQueryMap.freeze(QueryParser.builder().build().parse("a=1"));
+
+        ex.expect(UnsupportedOperationException.class);
+        frozen.get("a").add("2");
+    }
+
+    @Test
+    public void whenFreezingRandomQueriesThenMapsAreEqual() throws Exception {
+        QueryParser qp = QueryParser.builder().addFlags(QueryParserFlag.CONVERT_TO_NULL).build();
+        String[] parts = {"a", "b", "%20", "%C3%A9", "%E2%82%AC", "%F0%9F%98%80", "x"};
+        Random random = new Random(47);
+
+        for (int round = 0; round < 500; round++) {
+            StringBuilder builder = new StringBuilder();
+            int pairs = random.nextInt(8);
+            for (int i = 0; i < pairs; i++) {
+                builder.append(i == 0 ? "" : "&").append(parts[random.nextInt(parts.length)]);
+                if (random.nextBoolean()) {
+                    builder.append('=');
+                    for (int j = random.nextInt(3); j > 0; j--)
+                        builder.append(parts[random.nextInt(parts.length)]);
+                }
+            }
+
+            Map<String, List<String>> parsed = qp.parse(builder.toString());
+            FrozenQueryMap frozen = FrozenQueryMap.freeze(parsed);
+            assertThat(builder.toString(), frozen, is(parsed));
+            for (String key : parsed.keySet())
+                assertThat(builder.toString(), frozen.get(key), is(parsed.get(key)));
+        }
+    }
+}
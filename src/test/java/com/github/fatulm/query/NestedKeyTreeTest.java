@@ -0,0 +1,149 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.theories.DataPoints;
+import org.junit.experimental.theories.FromDataPoints;
+import org.junit.experimental.theories.Theories;
+import org.junit.experimental.theories.Theory;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings({"RedundantThrows", "unchecked"})
+@RunWith(Theories.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class NestedKeyTreeTest {
+    @DataPoints("Bad Nested Keys")
+    public static String[] BAD_NESTED_KEYS = new String[]{"a[b=1", "a[b]c=1", "a[][b]=1", "a.=1", "a..b=1"};
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder()
+                .nestedKeys(4, 8)
+                .build();
+    }
+
+    @Test
+    public void whenParsingBracketKeysThenTreeIsBuilt() throws Exception {
+        Map<String, Object> tree = qp.parseNested("filter[status][]=open&filter[status][]=closed&filter[owner]=me&q=x");
+        Map<String, Object> filter = (Map<String, Object>) tree.get("filter");
+
+        assertThat(filter.get("status"), is((Object) Arrays.asList("open", "closed")));
+        assertThat(filter.get("owner"), is((Object) Collections.singletonList("me")));
+        assertThat(tree.get("q"), is((Object) Collections.singletonList("x")));
+    }
+
+    @Test
+    public void whenParsingDotKeysThenTheyAreSameAsBracketKeys() throws Exception {
+        assertThat(qp.parseNested("a.b.c=1&a[b][d]=2"), is(qp.parseNested("a[b][c]=1&a.b.d=2")));
+        assertThat(qp.parseNested("a.b=1").get("a"), instanceOf(Map.class));
+    }
+
+    @Test
+    public void whenParsingAppendAndPlainKeysThenValuesAreInTheSameList() throws Exception {
+        assertThat(qp.parseNested("a[]=1&a=2&a[]").get("a"), is((Object) Arrays.asList("1", "2", null)));
+    }
+
+    @Test
+    public void whenParsingEncodedBracketsThenTheyAreDecodedFirst() throws Exception {
+        Map<String, Object> tree = qp.parseNested("a%20b[c%20d]=x");
+        assertThat(((Map<String, Object>) tree.get("a b")).get("c d"), is((Object) Collections.singletonList("x")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void givenCaseInsensitiveKeysWhenParsingNestedThenPartsAreComparedIgnoringCase() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .nestedKeys(4, 8)
+                .build();
+
+        Map<String, Object> tree = qp.parseNested("A[b]=1&a[B]=2&a.C=3");
+        assertThat(tree.size(), is(1));
+        Map<String, Object> a = (Map<String, Object>) tree.get("a");
+        assertThat(a.keySet(), is((Object) new LinkedHashSet<>(Arrays.asList("b", "C"))));
+        assertThat(a.get("B"), is((Object) Arrays.asList("1", "2")));
+        assertThat(a.get("c"), is((Object) Collections.singletonList("3")));
+    }
+
+    @Test
+    public void givenMergeValuesWhenParsingNestedThenLeafValuesAreMerged() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.MERGE_VALUES)
+                .nestedKeys(4, 8)
+                .build();
+
+        assertThat(qp.parseNested("a[]=1&a[]=1&a[]=2").get("a"), is((Object) Arrays.asList("1", "2")));
+    }
+
+    @Test
+    public void whenParsingConflictingKeysThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has conflicting nested keys");
+        qp.parseNested("a=1&a[b]=2");
+    }
+
+    @Test
+    public void whenParsingTooDeepKeyThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has too deep nested key");
+        qp.parseNested("a[b][c][d][e]=1");
+    }
+
+    @Test
+    public void whenParsingTooWideNodeThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has too many nested keys");
+        qp.parseNested("a[0]&a[1]&a[2]&a[3]&a[4]&a[5]&a[6]&a[7]&a[8]");
+    }
+
+    @Test
+    public void whenNestedKeysAreNotEnabledThenThrowsIllegalStateException() throws Exception {
+        ex.expect(IllegalStateException.class);
+        ex.expectMessage("nested keys are not enabled");
+        QueryParser.builder().build().parseNested("a[b]=1");
+    }
+
+    @Test
+    public void whenNestedKeysAreNotEnabledThenBracketsAreInvalid() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has invalid characters");
+        QueryParser.builder().build().parse("a[b]=1");
+    }
+
+    @Test
+    public void whenParsingNestedThenTreeIsUnmodifiable() throws Exception {
+        Map<String, Object> tree = qp.parseNested("a[b]=1");
+
+        ex.expect(UnsupportedOperationException.class);
+        ((Map<String, Object>) tree.get("a")).clear();
+    }
+
+    @Theory
+    public void whenParsingBadNestedKeyThenThrowsIllegalArgumentException
+            (@FromDataPoints("Bad Nested Keys") String query) throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad nested key");
+        qp.parseNested(query);
+    }
+}
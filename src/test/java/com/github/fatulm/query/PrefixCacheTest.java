@@ -0,0 +1,189 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class PrefixCacheTest {
+    private static final String PREFIX = "client_id=abc123&api_version=2&locale=en%20US&";
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private static String query(int i) {
+        return PREFIX + "q=" + i + "&page=" + (i % 3) + (i % 5 == 0 ? "&" : "");
+    }
+
+    @Test
+    public void whenParsingWithCacheThenResultIsSameAsWithoutCache() throws Exception {
+        QueryParser cached = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID, QueryParserFlag.IGNORE_WHITE_SPACE,
+                        QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)
+                .prefixCache(64)
+                .build();
+        QueryParser plain = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID, QueryParserFlag.IGNORE_WHITE_SPACE,
+                        QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)
+                .build();
+
+        String[] queries = {"", "&", "a", "a&", "a&b", "a=1&a=1", " a = x &b", "a=&=", "a&b&a&b=2", "a&b=2"};
+        for (int round = 0; round < 2; round++) {
+            for (String query : queries)
+                assertThat(query, cached.parse(query), is(plain.parse(query)));
+            for (int i = 0; i < 100; i++)
+                assertThat(cached.parse(query(i)), is(plain.parse(query(i))));
+        }
+    }
+
+    @Test
+    public void whenParsingQueriesWithCommonPrefixThenPrefixPartsAreShared() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(1000)
+                .build();
+
+        qp.parse(PREFIX + "q=1");
+        assertThat(qp.getPrefixCache().size(), is(4));
+        // raw parts with separators, keys and values
+        assertThat(qp.getPrefixCache().retainedChars(), is(PREFIX.length() + 4L + "client_idabc123api_version2localeen USq1".length()));
+        qp.parse(PREFIX + "q=2");
+        qp.parse(PREFIX + "q=1");
+        assertThat(qp.getPrefixCache().size(), is(5));
+    }
+
+    @Test
+    public void whenCacheIsFullThenOldPartsAreEvicted() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(200)
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(qp.parse(query(i)).get("q").get(0), is(String.valueOf(i)));
+            assertThat(qp.getPrefixCache().retainedChars(), lessThanOrEqualTo(200L));
+        }
+        assertThat(qp.getPrefixCache().size(), greaterThan(0));
+        assertThat(qp.parse(PREFIX + "q=x").get("locale").get(0), is("en US"));
+    }
+
+    @Test
+    public void whenOneQueryFillsCacheThenLaterQueriesAreStillCached() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(200)
+                .build();
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 30; i++)
+            query.append(i == 0 ? "" : "&").append("k").append(i).append("=v").append(i);
+
+        // all parts of a single call have the same access time
+        qp.parse(query.toString());
+        for (int i = 0; i < 5; i++)
+            qp.parse("z" + i + "=1");
+
+        assertThat(qp.getPrefixCache().size(), is(5));
+        assertThat(qp.getPrefixCache().retainedChars(), is(5L * "z0=1&z01".length()));
+    }
+
+    @Test
+    public void whenPartsAreLongThenCacheIsBoundedByCharacters() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(1000)
+                .build();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 300; i++)
+            value.append('v');
+
+        for (int i = 0; i < 100; i++) {
+            qp.parse("a" + i + "=" + value + "&b=" + value + i);
+            assertThat(qp.getPrefixCache().retainedChars(), lessThanOrEqualTo(1000L));
+            assertThat(qp.getPrefixCache().size(), lessThanOrEqualTo(2));
+        }
+
+        value.append(value).append(value);
+        assertThat(qp.parse("huge=" + value).get("huge").get(0), is(value.toString()));
+        assertThat(qp.getPrefixCache().retainedChars(), lessThanOrEqualTo(1000L));
+    }
+
+    @Test
+    public void whenPartsAreEmptyThenTheyAreStillCounted() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(100)
+                .build();
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 99; i++)
+            query.append('&');
+
+        // 100 empty parts fill the cache exactly
+        assertThat(qp.parse(query.toString()).isEmpty(), is(true));
+        assertThat(qp.getPrefixCache().size(), is(100));
+        assertThat(qp.getPrefixCache().retainedChars(), is(100L));
+
+        for (int i = 0; i < 900; i++)
+            query.append('&');
+        assertThat(qp.parse(query.toString()).isEmpty(), is(true));
+        assertThat(qp.getPrefixCache().size(), lessThanOrEqualTo(100));
+        assertThat(qp.getPrefixCache().retainedChars(), is((long) qp.getPrefixCache().size()));
+    }
+
+    @Test
+    public void whenTailOfCachedPrefixIsInvalidThenThrowsIllegalArgumentException() throws Exception {
+        QueryParser qp = QueryParser.builder()
+                .prefixCache(100)
+                .build();
+        qp.parse(PREFIX + "q=1");
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        qp.parse(PREFIX + "q=1=2");
+    }
+
+    @Test
+    public void whenParsingConcurrentlyThenResultsAreCorrect() throws Exception {
+        QueryParser cached = QueryParser.builder()
+                .prefixCache(500)
+                .build();
+        QueryParser plain = QueryParser.builder().build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int seed = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        String query = query((i * 31 + seed) % 700);
+                        Map<String, List<String>> map = cached.parse(query);
+                        if (!map.equals(plain.parse(query)))
+                            return false;
+                    }
+                    return true;
+                }));
+            }
+
+            for (Future<Boolean> future : futures)
+                assertThat(future.get(), is(true));
+        } finally {
+            executor.shutdown();
+        }
+        // each thread can add one part after bound is checked by others
+        assertThat(cached.getPrefixCache().retainedChars(), lessThanOrEqualTo(500L + 4 * PREFIX.length()));
+    }
+}
@@ -0,0 +1,90 @@
+package com.github.fatulm.query;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that a warmed up add call of arena stays in committed budgets.
+ * Parsers which work in place should not create strings or pairs, so their budget
+ * is only a few small objects (the scanner, if it is not scalar replaced).
+ * Budgets are about 1.5 times of measured values.
+ * Parsers with white space flags make strings and have a separate budget.
+ */
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryArenaAllocationTest {
+    private static final int WARM_UP_CALLS = 20_000;
+    private static final int MEASURED_CALLS = 1_000;
+    private static final String QUERY =
+            "client_id=abc123&api_version=2&locale=en_US&q=query%20parser&city=K%C3%B6ln&page=3&sort=desc&flag";
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(5, TimeUnit.MINUTES);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * @return average allocated bytes of an add call on current thread
+     */
+    private static long allocatedBytesPerCall(QueryParser parser, String query) {
+        try (QueryArena arena = new QueryArena(1024, 64)) {
+            for (int i = 0; i < WARM_UP_CALLS; i++) {
+                arena.reset();
+                arena.add(parser, query);
+            }
+
+            long thread = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < MEASURED_CALLS; i++) {
+                arena.reset();
+                arena.add(parser, query);
+            }
+            return (threadBean.getThreadAllocatedBytes(thread) - before) / MEASURED_CALLS;
+        }
+    }
+
+    @Test
+    public void whenAddingWithUtf8ParserThenAllocationIsInBudget() throws Exception {
+        assertThat(allocatedBytesPerCall(QueryParser.builder().build(), QUERY), lessThanOrEqualTo(100L));
+    }
+
+    @Test
+    public void whenAddingWithConvertToNullAndLatin1ThenAllocationIsInBudget() throws Exception {
+        QueryParser parser = QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)
+                .charset(StandardCharsets.ISO_8859_1)
+                .build();
+
+        assertThat(allocatedBytesPerCall(parser, QUERY), lessThanOrEqualTo(100L));
+    }
+
+    @Test
+    public void whenAddingWithWhiteSpaceFlagsThenAllocationIsInBudget() throws Exception {
+        QueryParser parser = QueryParser.builder()
+                .addFlags(QueryParserFlag.HARD_IGNORE_WHITE_SPACE)
+                .build();
+
+        assertThat(allocatedBytesPerCall(parser, QUERY), lessThanOrEqualTo(1_800L));
+    }
+}
@@ -0,0 +1,258 @@
+package com.github.fatulm.query;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryArenaTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+    private QueryArena arena;
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return keys and values of a query of arena one after another
+     */
+    private static List<String> pairsOf(QueryArena arena, int query) {
+        List<String> pairs = new ArrayList<>();
+        for (int pair = 0; pair < arena.getPairCount(query); pair++) {
+            pairs.add(arena.getKey(query, pair));
+            pairs.add(arena.getValue(query, pair));
+        }
+        return pairs;
+    }
+
+    /**
+     * @return keys and values of parsed query one after another
+     */
+    private static List<String> pairsOf(QueryParser parser, String query) {
+        List<String> pairs = new ArrayList<>();
+        parser.forEachPair(query, (key, value) -> {
+            pairs.add(key);
+            pairs.add(value);
+        });
+        return pairs;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder().build();
+        arena = new QueryArena(1024, 64);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        arena.close();
+    }
+
+    @Test
+    public void whenAddingQueriesThenPairsAreKeptInOrder() throws Exception {
+        assertThat(arena.add(qp, "a=1&b&a=%202"), is(0));
+        assertThat(arena.add(qp, "c="), is(1));
+
+        assertThat(arena.getQueryCount(), is(2));
+        assertThat(arena.getPairCount(0), is(3));
+        assertThat(arena.getKey(0, 2), is("a"));
+        assertThat(arena.getValue(0, 2), is(" 2"));
+        assertThat(arena.hasValue(0, 1), is(false));
+        assertThat(arena.getValue(0, 1), is(nullValue()));
+        assertThat(arena.getValueLength(1, 0), is(0));
+    }
+
+    @Test
+    public void whenComparingThenNoStringIsNeeded() throws Exception {
+        arena.add(qp, "key=value&other=x");
+
+        assertThat(arena.keyEquals(0, 0, utf8("key")), is(true));
+        assertThat(arena.keyEquals(0, 0, utf8("ke")), is(false));
+        assertThat(arena.valueEquals(0, 0, utf8("value")), is(true));
+        assertThat(arena.findPair(0, utf8("other")), is(1));
+        assertThat(arena.findPair(0, utf8("missing")), is(-1));
+    }
+
+    @Test
+    public void whenCopyingThenUtf8BytesAreCopied() throws Exception {
+        arena.add(qp, "k=some%20value");
+
+        byte[] expected = utf8("some value");
+        byte[] bytes = new byte[expected.length];
+        assertThat(arena.copyValue(0, 0, bytes, 0), is(expected.length));
+        assertThat(bytes, is(expected));
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertThat(arena.copyKey(0, 0, buffer), is(1));
+        assertThat(buffer.get(0), is((byte) 'k'));
+    }
+
+    @Test
+    public void whenCopyingToBufferThenRangesAreCopiedInBulk() throws Exception {
+        arena.add(qp, "a=first&b=second");
+        arena.add(qp, "c=caf%C3%A9");
+
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put((byte) '>');
+        assertThat(arena.copyValue(0, 1, buffer), is(6));
+        assertThat(arena.copyValue(1, 0, buffer), is(5));
+        assertThat(arena.copyKey(0, 0, buffer), is(1));
+        buffer.flip();
+        byte[] copied = new byte[buffer.remaining()];
+        buffer.get(copied);
+        assertThat(copied, is(utf8(">secondcaf\u00e9a")));
+
+        ByteBuffer small = ByteBuffer.allocate(3);
+        try {
+            arena.copyValue(0, 0, small);
+            fail("buffer should overflow");
+        } catch (BufferOverflowException e) {
+            assertThat(small.position(), is(0));
+        }
+        assertThat(arena.getValue(0, 0), is("first"));
+    }
+
+    @Test
+    public void whenArenaIsFullThenThrowsIllegalStateExceptionAndQueryIsNotKept() throws Exception {
+        arena = new QueryArena(8, 64);
+        arena.add(qp, "a=1");
+
+        try {
+            arena.add(qp, "key=value");
+            fail("arena should be full");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("arena is full"));
+        }
+
+        assertThat(arena.getQueryCount(), is(1));
+        assertThat(arena.getDataSize(), is(2));
+        arena.add(qp, "b=2");
+        assertThat(arena.getKey(1, 0), is("b"));
+    }
+
+    @Test
+    public void whenResettingThenArenaCanBeReused() throws Exception {
+        for (int batch = 0; batch < 3; batch++) {
+            for (int i = 0; i < 32; i++)
+                arena.add(qp, "k=" + i + "&v");
+            assertThat(arena.getQueryCount(), is(32));
+            arena.reset();
+            assertThat(arena.getQueryCount(), is(0));
+        }
+    }
+
+    @Test
+    public void whenUsingReleasedArenaThenThrowsIllegalStateException() throws Exception {
+        arena.release();
+
+        ex.expect(IllegalStateException.class);
+        ex.expectMessage("arena is released");
+        arena.add(qp, "a=1");
+    }
+
+    @Test
+    public void whenReadingMissingQueryThenThrowsIndexOutOfBoundsException() throws Exception {
+        ex.expect(IndexOutOfBoundsException.class);
+        arena.getPairCount(0);
+    }
+
+    @Test
+    public void whenAddingThenPairsAreSameAsParserForAllCharsetsAndFlags() throws Exception {
+        String[] parts = {"a", "B", "%20", "%2B", "%C3%A9", "%E2%82%AC", "%F0%9F%98%80", "%E9", "", "+", "x%41y"};
+        Charset[] charsets = {StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1, StandardCharsets.US_ASCII};
+        QueryParserFlag[][] flags = {
+                {},
+                {QueryParserFlag.CONVERT_TO_NULL},
+                {QueryParserFlag.HARD_IGNORE_WHITE_SPACE, QueryParserFlag.CONVERT_TO_NULL},
+        };
+        Random random = new Random(29);
+        arena = new QueryArena(1 << 16, 1 << 12);
+
+        for (Charset charset : charsets) {
+            for (QueryParserFlag[] flagSet : flags) {
+                QueryParser parser = QueryParser.builder().addFlags(flagSet).charset(charset).build();
+                for (int round = 0; round < 300; round++) {
+                    StringBuilder builder = new StringBuilder();
+                    int pairs = random.nextInt(5);
+                    for (int i = 0; i < pairs; i++) {
+                        builder.append(i == 0 ? "" : "&").append(parts[random.nextInt(parts.length)]);
+                        if (random.nextBoolean())
+                            builder.append('=').append(parts[random.nextInt(parts.length)])
+                                    .append(parts[random.nextInt(parts.length)]);
+                    }
+                    String query = builder.toString();
+
+                    List<String> expected;
+                    try {
+                        expected = pairsOf(parser, query);
+                    } catch (IllegalArgumentException e) {
+                        try {
+                            arena.add(parser, query);
+                            fail(charset + " " + query + " should not be accepted");
+                        } catch (IllegalArgumentException arenaException) {
+                            assertThat(query, arenaException.getMessage(), is(e.getMessage()));
+                        }
+                        continue;
+                    }
+
+                    arena.reset();
+                    arena.add(parser, query);
+                    assertThat(charset + " " + query, pairsOf(arena, 0), is(expected));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void whenEncodedBytesAreMalformedThenThrowsIllegalArgumentExceptionAndQueryIsNotKept() throws Exception {
+        arena.add(qp, "a=1");
+
+        try {
+            arena.add(qp, "b=2&c=%C3%28");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("query string has malformed UTF-8 characters"));
+        }
+
+        assertThat(arena.getQueryCount(), is(1));
+        assertThat(arena.getDataSize(), is(2));
+    }
+
+    @Test
+    public void whenParserHasOtherSeparatorsThenTheyAreUsed() throws Exception {
+        QueryParser parser = QueryParser.builder()
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .build();
+
+        arena.add(parser, "a=1; b = x%20y ;c");
+
+        assertThat(pairsOf(arena, 0), is(pairsOf(parser, "a=1; b = x%20y ;c")));
+        assertThat(arena.getValue(0, 1), is("x y"));
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryCodecTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID)
+                .build();
+    }
+
+    @Test
+    public void whenEncodingParsedMapThenDecodedMapIsEqual() throws Exception {
+        String[] queries = {"", "a", "a=1&b=2&a=3", "=&a=&b", "my%20key=a%20b&x=1", "a b=c d"};
+        for (String query : queries) {
+            Map<String, List<String>> map = qp.parse(query);
+            byte[] bytes = QueryCodec.encode(map);
+
+            assertThat(bytes.length, is(QueryCodec.encodedSize(map)));
+            assertThat(QueryCodec.read(bytes), is(map));
+            assertThat(QueryCodec.read(bytes).hashCode(), is(map.hashCode()));
+        }
+    }
+
+    @Test
+    public void whenEncodingNonAsciiStringsThenTheyAreKeptAndFound() throws Exception {
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        map.put("caf\u00e9", Arrays.asList("\u20ac", null, "\ud83d\ude00"));
+        map.put("\u4e2d", Arrays.asList("x"));
+
+        Map<String, List<String>> view = QueryCodec.read(QueryCodec.encode(map));
+        assertThat(view.get("caf\u00e9"), is(Arrays.asList("\u20ac", null, "\ud83d\ude00")));
+        assertThat(view.get("\u4e2d"), is(Arrays.asList("x")));
+        assertThat(view.get("cafe"), is(nullValue()));
+        assertThat(view.containsKey("caf\u00e9x"), is(false));
+    }
+
+    @Test
+    public void whenReadingConsecutiveMapsFromBufferThenPositionIsMoved() throws Exception {
+        Map<String, List<String>> first = qp.parse("a=1");
+        Map<String, List<String>> second = qp.parse("b&c=2");
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(QueryCodec.encodedSize(first) + QueryCodec.encodedSize(second));
+        QueryCodec.write(first, buffer);
+        QueryCodec.write(second, buffer);
+        buffer.flip();
+
+        assertThat(QueryCodec.read(buffer), is(first));
+        assertThat(QueryCodec.read(buffer), is(second));
+        assertThat(buffer.hasRemaining(), is(false));
+    }
+
+    @Test
+    public void whenWritingToStreamThenBytesAreSameAsEncode() throws Exception {
+        Map<String, List<String>> map = qp.parse("a=1&b=2&a");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        QueryCodec.write(map, out);
+
+        assertThat(out.toByteArray(), is(QueryCodec.encode(map)));
+    }
+
+    @Test
+    public void whenGettingNullKeyThenThrowsNullPointerException() throws Exception {
+        Map<String, List<String>> view = QueryCodec.read(QueryCodec.encode(qp.parse("a=1")));
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("key can not be null");
+        view.get(null);
+    }
+
+    @Test
+    public void whenModifyingViewThenThrowsUnsupportedOperationException() throws Exception {
+        Map<String, List<String>> view = QueryCodec.read(QueryCodec.encode(qp.parse("a=1")));
+
+        ex.expect(UnsupportedOperationException.class);
+        view.put("b", Arrays.asList("2"));
+    }
+
+    @Test
+    public void whenReadingTruncatedBytesThenThrowsIllegalArgumentException() throws Exception {
+        byte[] bytes = QueryCodec.encode(qp.parse("a=1&b=2"));
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("buffer has bad structure");
+        QueryCodec.read(Arrays.copyOf(bytes, bytes.length - 1));
+    }
+
+    @Test
+    public void whenReadingOtherBytesThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("buffer does not contain an encoded query map");
+        QueryCodec.read("{\"a\":[\"1\"]}".getBytes("UTF-8"));
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryColumnsTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder().build();
+    }
+
+    @Test
+    public void whenParsingABatchThenKeysAreInFirstSeenOrder() throws Exception {
+        QueryColumns columns = QueryColumns.parse(qp, Arrays.asList("b=1&a=2", "c", "a=3"));
+
+        assertThat(columns.getRowCount(), is(3));
+        assertThat(columns.getKeys(), is(Arrays.asList("b", "a", "c")));
+        assertThat(columns.getColumn("missing"), is(nullValue()));
+    }
+
+    @Test
+    public void whenParsingABatchThenOffsetsAndPresenceDescribeRows() throws Exception {
+        QueryColumns columns = QueryColumns.parse(qp, Arrays.asList("a=1&a=2", "", "a&b=x", "b=y"));
+        QueryColumns.Column a = columns.getColumn("a");
+
+        assertThat(a.getOffsets(), is(new int[]{0, 2, 2, 3, 3}));
+        assertThat(a.isPresent(0), is(true));
+        assertThat(a.isPresent(1), is(false));
+        assertThat(a.isPresent(3), is(false));
+        assertThat(a.getValues(0), is(Arrays.asList("1", "2")));
+        assertThat(a.getValues(1), is(nullValue()));
+        assertThat(a.getValues(2), is(Collections.singletonList((String) null)));
+        assertThat(a.getValidity().get(2), is(false));
+    }
+
+    @Test
+    public void whenColumnHasFewDistinctValuesThenItIsDictionaryEncoded() throws Exception {
+        QueryColumns columns = QueryColumns.parse(qp, Arrays.asList("f=json", "f=xml", "f=json&f", "f=json"));
+        QueryColumns.Column f = columns.getColumn("f");
+
+        assertThat(f.isDictionaryEncoded(), is(true));
+        assertThat(f.getDictionary(), is(new String[]{"json", "xml"}));
+        assertThat(f.getCodes(), is(new int[]{0, 1, 0, -1, 0}));
+        assertThat(f.getValues(), is(nullValue()));
+        assertThat(f.getValue(1), is("xml"));
+    }
+
+    @Test
+    public void whenColumnHasManyDistinctValuesThenItIsNotDictionaryEncoded() throws Exception {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            queries.add("id=" + i);
+
+        QueryColumns.Column id = QueryColumns.parse(qp, queries, 4).getColumn("id");
+
+        assertThat(id.isDictionaryEncoded(), is(false));
+        assertThat(id.getValues()[9], is("9"));
+        assertThat(id.getValueCount(), is(10));
+    }
+
+    @Test
+    public void givenMergeValuesWhenParsingABatchThenValuesOfARowAreMerged() throws Exception {
+        qp = QueryParser.builder().addFlags(QueryParserFlag.MERGE_VALUES).build();
+        QueryColumns.Column k = QueryColumns.parse(qp, Arrays.asList("k=1&k=1&k", "k=1&k")).getColumn("k");
+
+        assertThat(k.getValues(0), is(Arrays.asList("1", null)));
+        assertThat(k.getValues(1), is(Arrays.asList("1", null)));
+    }
+
+    @Test
+    public void givenMergeValuesWhenRowHasManyRepeatsThenValuesAreMergedInOrder() throws Exception {
+        qp = QueryParser.builder().addFlags(QueryParserFlag.MERGE_VALUES).build();
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 20_000; i++)
+            query.append(i == 0 ? "" : "&").append("k=").append(i % 3 == 0 ? "" : String.valueOf(i % 5));
+        query.append("&k");
+
+        QueryColumns.Column k = QueryColumns.parse(qp, Arrays.asList(query.toString(), "k=2&k=2")).getColumn("k");
+
+        assertThat(k.getValues(0), is(Arrays.asList("", "1", "2", "4", "0", "3", null)));
+        assertThat(k.getValues(0), is(qp.parse(query.toString()).get("k")));
+        assertThat(k.getValues(1), is(Collections.singletonList("2")));
+    }
+
+    @Test
+    public void whenTakingArrowBuffersThenBitmapsAndUtf8MatchOffsets() throws Exception {
+        QueryColumns columns = QueryColumns.parse(qp,
+                Arrays.asList("a=x&a", "", "a=caf%C3%A9&a=%E2%82%AC", "b", "", "", "", "", "a=%F0%9F%98%80"), 0);
+        QueryColumns.Column a = columns.getColumn("a");
+
+        assertThat(a.getOffsets(), is(new int[]{0, 2, 2, 4, 4, 4, 4, 4, 4, 5}));
+        assertThat(a.getPresenceBitmap(), is(new byte[]{0b101, 0b1}));
+        assertThat(a.getValidityBitmap(), is(new byte[]{0b11101}));
+        assertThat(a.getUtf8Offsets(), is(new int[]{0, 1, 1, 6, 9, 13}));
+        assertThat(new String(a.getUtf8Data(), StandardCharsets.UTF_8), is("xcaf\u00e9\u20ac\ud83d\ude00"));
+
+        QueryColumns.Column b = columns.getColumn("b");
+        assertThat(b.getPresenceBitmap(), is(new byte[]{0b1000, 0}));
+        assertThat(b.getValidityBitmap(), is(new byte[]{0}));
+        assertThat(b.getUtf8Offsets(), is(new int[]{0, 0}));
+    }
+
+    @Test
+    public void givenDictionaryEncodedColumnWhenTakingArrowBuffersThenUtf8IsOfDictionary() throws Exception {
+        QueryColumns.Column f = QueryColumns.parse(qp, Arrays.asList("f=json", "f=xml&f", "f=json")).getColumn("f");
+
+        assertThat(f.isDictionaryEncoded(), is(true));
+        assertThat(f.getUtf8Offsets(), is(new int[]{0, 4, 7}));
+        assertThat(new String(f.getUtf8Data(), StandardCharsets.UTF_8), is("jsonxml"));
+        assertThat(f.getValidityBitmap(), is(new byte[]{0b1011}));
+    }
+
+    @Test
+    public void whenParsingABatchThenRowsMatchParse() throws Exception {
+        List<String> queries = Arrays.asList("x=1&y=2&x=3", "y&z=", "x=%20");
+        QueryColumns columns = QueryColumns.parse(qp, queries);
+
+        for (int row = 0; row < queries.size(); row++)
+            for (String key : columns.getKeys())
+                assertThat(columns.getColumn(key).getValues(row), is(qp.parse(queries.get(row)).get(key)));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenParsingABatchThenKeysShareAColumn() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build();
+        QueryColumns columns = QueryColumns.parse(qp, Arrays.asList("Page=1&page=2", "PAGE=3"));
+
+        assertThat(columns.getKeys(), is(Collections.singletonList("Page")));
+        assertThat(columns.getColumn("page").getValues(0), is(Arrays.asList("1", "2")));
+        assertThat(columns.getColumn("pAGE").getValues(1), is(Collections.singletonList("3")));
+    }
+
+    @Test
+    public void whenParsingNullBatchThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("queries should not be null");
+        QueryColumns.parse(qp, null);
+    }
+}
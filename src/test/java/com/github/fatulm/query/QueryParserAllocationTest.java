@@ -0,0 +1,155 @@
+package com.github.fatulm.query;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that bytes allocated by a warmed up parse call stay in committed budgets.
+ * Each input is parsed with every valid combination of flags, combinations which
+ * ignore white space copy strings more and have a separate budget.
+ * Budgets are about 1.5 times of measured values, when a change makes parsing
+ * allocate less they should be lowered.
+ */
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryParserAllocationTest {
+    private static final int WARM_UP_CALLS = 5_000;
+    private static final int MEASURED_CALLS = 1_000;
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(5, TimeUnit.MINUTES);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * @return all flag combinations which builder accepts
+     */
+    private static List<EnumSet<QueryParserFlag>> flagCombinations() {
+        QueryParserFlag[] all = QueryParserFlag.values();
+        List<EnumSet<QueryParserFlag>> combinations = new ArrayList<>();
+
+        for (int mask = 0; mask < 1 << all.length; mask++) {
+            EnumSet<QueryParserFlag> flags = EnumSet.noneOf(QueryParserFlag.class);
+            for (int i = 0; i < all.length; i++)
+                if ((mask & 1 << i) != 0)
+                    flags.add(all[i]);
+
+            if (flags.contains(QueryParserFlag.IGNORE_WHITE_SPACE)
+                    && !flags.contains(QueryParserFlag.WHITE_SPACE_IS_VALID))
+                continue;
+            combinations.add(flags);
+        }
+
+        return combinations;
+    }
+
+    private static boolean ignoresWhiteSpace(EnumSet<QueryParserFlag> flags) {
+        return flags.contains(QueryParserFlag.IGNORE_WHITE_SPACE)
+                || flags.contains(QueryParserFlag.HARD_IGNORE_WHITE_SPACE);
+    }
+
+    /**
+     * @return average allocated bytes of a parse call on current thread
+     */
+    private static long allocatedBytesPerCall(QueryParser parser, String query) {
+        for (int i = 0; i < WARM_UP_CALLS; i++)
+            parser.parse(query);
+
+        long thread = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_CALLS; i++)
+            parser.parse(query);
+        return (threadBean.getThreadAllocatedBytes(thread) - before) / MEASURED_CALLS;
+    }
+
+    /**
+     * @param query            input
+     * @param budget           bytes per call for flags which do not ignore white space
+     * @param whiteSpaceBudget bytes per call for flags which ignore white space
+     */
+    private static void checkBudget(String query, long budget, long whiteSpaceBudget) {
+        boolean hasWhiteSpace = query.matches("(?s).*\\s.*");
+        List<String> failures = new ArrayList<>();
+
+        for (EnumSet<QueryParserFlag> flags : flagCombinations()) {
+            if (hasWhiteSpace && !flags.contains(QueryParserFlag.WHITE_SPACE_IS_VALID))
+                continue;
+
+            QueryParser parser = QueryParser.builder()
+                    .addFlags(flags.toArray(new QueryParserFlag[0]))
+                    .build();
+            long allocated = allocatedBytesPerCall(parser, query);
+            long limit = ignoresWhiteSpace(flags) ? whiteSpaceBudget : budget;
+            if (allocated > limit)
+                failures.add(flags + " allocated " + allocated + " bytes per call, budget is " + limit);
+        }
+
+        assertThat(failures, empty());
+    }
+
+    private static String hundredPairs() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            builder.append("key").append(i).append("=value").append(i).append('&');
+        return builder.toString();
+    }
+
+    @Test
+    public void whenParsingEmptyQueryThenAllocationIsInBudget() throws Exception {
+        checkBudget("", 1_600, 1_600);
+    }
+
+    @Test
+    public void whenParsingSinglePairThenAllocationIsInBudget() throws Exception {
+        checkBudget("q=java", 3_000, 3_500);
+    }
+
+    @Test
+    public void whenParsingTypicalQueryThenAllocationIsInBudget() throws Exception {
+        checkBudget("client_id=abc123&api_version=2&locale=en_US&q=query%20parser&page=3&sort=desc",
+                8_500, 15_000);
+    }
+
+    @Test
+    public void whenParsingEncodedQueryThenAllocationIsInBudget() throws Exception {
+        checkBudget("name=John%20Smith&city=New%20York%20City&note=a%20b%20c%20d", 5_500, 10_000);
+    }
+
+    @Test
+    public void whenParsingRepeatedKeysThenAllocationIsInBudget() throws Exception {
+        checkBudget("tag=a&tag=b&tag=a&tag=c&tag=b&tag=d&id=1&id=1", 5_200, 14_000);
+    }
+
+    @Test
+    public void whenParsingUnencodedWhiteSpaceThenAllocationIsInBudget() throws Exception {
+        checkBudget("  first name = John   Smith &last\tname=  Doe  ", 3_500, 8_500);
+    }
+
+    @Test
+    public void whenParsingHundredPairsThenAllocationIsInBudget() throws Exception {
+        checkBudget(hundredPairs(), 125_000, 245_000);
+    }
+}
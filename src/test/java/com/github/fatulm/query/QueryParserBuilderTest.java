@@ -9,6 +9,7 @@ import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
 
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -121,4 +122,71 @@ public class QueryParserBuilderTest {
                 .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID)
                 .addFlags(QueryParserFlag.IGNORE_WHITE_SPACE);
     }
+
+    @Test
+    public void whenSettingNegativeParallelThresholdThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("threshold should not be negative");
+
+        QueryParser.builder()
+                .parallelThreshold(-1);
+    }
+
+    @Test
+    public void whenSettingParallelThresholdThenParserContainsIt() throws Exception {
+        assertThat(QueryParser.builder()
+                .parallelThreshold(1024)
+                .build()
+                .getParallelThreshold(), is(1024));
+    }
+
+    @Test
+    public void whenSettingNullDuplicateKeyPolicyThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("policy should not be null");
+
+        QueryParser.builder()
+                .duplicateKeyPolicy(null);
+    }
+
+    @Test
+    public void whenSettingDuplicateKeyPolicyThenParserContainsIt() throws Exception {
+        assertThat(QueryParser.builder().build().getDuplicateKeyPolicy(), is(DuplicateKeyPolicy.FIRST_WINS));
+        assertThat(QueryParser.builder()
+                .duplicateKeyPolicy(DuplicateKeyPolicy.REJECT)
+                .build()
+                .getDuplicateKeyPolicy(), is(DuplicateKeyPolicy.REJECT));
+    }
+
+    @Test
+    public void whenSettingNonPositiveNestedKeyLimitsThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("nested key limits should be positive");
+
+        QueryParser.builder()
+                .nestedKeys(0, 10);
+    }
+
+    @Test
+    public void whenSettingNonPositivePrefixCacheSizeThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("cache size should be positive");
+
+        QueryParser.builder()
+                .prefixCache(0);
+    }
+
+    @Test
+    public void whenSettingNullCharsetThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("charset should not be null");
+
+        QueryParser.builder()
+                .charset(null);
+    }
+
+    @Test
+    public void whenNotSettingCharsetThenItIsUtf8() throws Exception {
+        assertThat(QueryParser.builder().build().getCharset(), is(StandardCharsets.UTF_8));
+    }
 }
@@ -0,0 +1,163 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Stress tests of parsers which are shared by threads. Each test runs parse calls
+ * on many threads at the same time and compares results with single threaded ones,
+ * while another thread keeps changing the builder of parsers.
+ */
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryParserConcurrencyTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2_000;
+    private static final String[] QUERIES = {
+            "",
+            "a=1&b=2&a=3",
+            "client_id=abc123&api_version=2&q=query%20parser&page=3&page=3",
+            "Key=%E2%82%AC&KEY=x&key=&flag",
+            "x=%C3%A9t%C3%A9&y=%20%20&z",
+            "client_id=abc123&api_version=2&q=other&page=1",
+    };
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(5, TimeUnit.MINUTES);
+
+    /**
+     * Parses all queries on {@link #THREADS} threads and checks results,
+     * while <tt>mutator</tt> runs on another thread until they finish
+     */
+    private static void stress(QueryParser parser, Runnable mutator) throws Exception {
+        List<Map<String, List<String>>> expected = new ArrayList<>();
+        for (String query : QUERIES)
+            expected.add(parser.parse(query));
+        EnumSet<QueryParserFlag> flags = EnumSet.noneOf(QueryParserFlag.class);
+        for (QueryParserFlag flag : QueryParserFlag.values())
+            if (parser.containsFlag(flag))
+                flags.add(flag);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            Future<?> mutation = executor.submit(() -> {
+                start.await();
+                while (!done.get())
+                    mutator.run();
+                return null;
+            });
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < ROUNDS; round++) {
+                        int i = (offset + round) % QUERIES.length;
+                        assertThat(QUERIES[i], parser.parse(QUERIES[i]), is(expected.get(i)));
+                        for (QueryParserFlag flag : QueryParserFlag.values())
+                            assertThat(parser.containsFlag(flag), is(flags.contains(flag)));
+                    }
+                    return null;
+                }));
+            }
+
+            start.countDown();
+            for (Future<?> future : futures)
+                future.get();
+            done.set(true);
+            mutation.get();
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void whenBuilderIsChangedAfterBuildThenParserDoesNotChange() throws Exception {
+        QueryParserBuilder builder = QueryParser.builder().addFlags(QueryParserFlag.CONVERT_TO_NULL);
+        QueryParser qp = builder.build();
+
+        builder.addFlags(QueryParserFlag.MERGE_VALUES).removeFlags(QueryParserFlag.CONVERT_TO_NULL);
+
+        assertThat(qp.containsFlag(QueryParserFlag.CONVERT_TO_NULL), is(true));
+        assertThat(qp.containsFlag(QueryParserFlag.MERGE_VALUES), is(false));
+        assertThat(builder.build().containsFlag(QueryParserFlag.MERGE_VALUES), is(true));
+    }
+
+    @Test
+    public void whenParsingConcurrentlyWhileBuilderIsChangedThenResultsAreSame() throws Exception {
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES);
+        QueryParser qp = builder.build();
+
+        stress(qp, () -> builder
+                .removeFlags(QueryParserFlag.MERGE_VALUES)
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .removeFlags()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)
+                .build());
+    }
+
+    @Test
+    public void whenParsingConcurrentlyWithPrefixCacheThenResultsAreSame() throws Exception {
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(QueryParserFlag.MERGE_VALUES)
+                .prefixCache(64);
+        QueryParser qp = builder.build();
+
+        stress(qp, () -> builder.prefixCache(32).prefixCache(64).build());
+    }
+
+    @Test
+    public void whenParsingConcurrentlyWithCaseInsensitiveKeysAndCharsetThenResultsAreSame() throws Exception {
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS, QueryParserFlag.WHITE_SPACE_IS_VALID,
+                        QueryParserFlag.HARD_IGNORE_WHITE_SPACE)
+                .charset(StandardCharsets.UTF_8);
+        QueryParser qp = builder.build();
+
+        stress(qp, () -> builder
+                .charset(StandardCharsets.ISO_8859_1)
+                .removeFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .charset(StandardCharsets.UTF_8)
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS));
+    }
+
+    @Test
+    public void whenParsingConcurrentlyWithSamplerThenResultsAreSame() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(4, 64);
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL)
+                .sampler(sampler);
+        QueryParser qp = builder.build();
+
+        stress(qp, () -> {
+            builder.addFlags(QueryParserFlag.MERGE_VALUES).removeFlags(QueryParserFlag.MERGE_VALUES);
+            sampler.getSlowest();
+        });
+
+        assertThat(sampler.getSlowest().size(), is(4));
+        assertThat(sampler.getLargest().get(0).getInputLength(), is(QUERIES[2].length()));
+    }
+}
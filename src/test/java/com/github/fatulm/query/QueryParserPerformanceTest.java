@@ -0,0 +1,185 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that parsing stays linear in time and constant in stack depth
+ * for pathological inputs.
+ */
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryParserPerformanceTest {
+    private static final int SMALL_SIZE = 20_000;
+    private static final int GROWTH = 16;
+    private static final int RUNS = 5;
+    // linear growth gives about GROWTH, quadratic growth gives GROWTH * GROWTH
+    private static final double MAX_TIME_RATIO = GROWTH * 3;
+    private static final int LARGE_SIZE = 1_000_000;
+    private static final long SMALL_STACK_SIZE = 128 * 1024;
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(5, TimeUnit.MINUTES);
+
+    private static QueryParser simpleParser() {
+        return QueryParser.builder().build();
+    }
+
+    private static QueryParser ignoreWhiteSpaceParser() {
+        return QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID,
+                        QueryParserFlag.IGNORE_WHITE_SPACE,
+                        QueryParserFlag.HARD_IGNORE_WHITE_SPACE,
+                        QueryParserFlag.MERGE_VALUES)
+                .build();
+    }
+
+    private static String repeat(String str, int count) {
+        StringBuilder builder = new StringBuilder(str.length() * count);
+        for (int i = 0; i < count; i++)
+            builder.append(str);
+        return builder.toString();
+    }
+
+    private static String equalsRun(int size) {
+        return "key" + repeat("=", size);
+    }
+
+    private static String longKeyWithTwoEquals(int size) {
+        return repeat("k", size) + "==";
+    }
+
+    private static String ampersandChain(int size) {
+        return repeat("&", size);
+    }
+
+    private static String pairChain(int size) {
+        return repeat("k=v&", size / 4);
+    }
+
+    private static String encodedSpaces(int size) {
+        return "key=" + repeat("%20", size / 3);
+    }
+
+    private static String whiteSpaceRun(int size) {
+        return "key" + repeat(" ", size / 2) + "=" + repeat(" \t", size / 4) + "value";
+    }
+
+    private static void parseIgnoringBadInput(QueryParser parser, String query) {
+        try {
+            parser.parse(query);
+        } catch (IllegalArgumentException ignored) {
+            // bad structure is fine, only time and stack matter here
+        }
+    }
+
+    private static long bestTime(QueryParser parser, String query) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            parseIgnoringBadInput(parser, query);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return Math.max(best, 1);
+    }
+
+    private static void assertLinearTime(QueryParser parser, IntFunction<String> generator) {
+        String small = generator.apply(SMALL_SIZE);
+        String large = generator.apply(SMALL_SIZE * GROWTH);
+
+        // warm up
+        bestTime(parser, small);
+        bestTime(parser, large);
+
+        double ratio = (double) bestTime(parser, large) / bestTime(parser, small);
+        assertThat(ratio, lessThan(MAX_TIME_RATIO));
+    }
+
+    private static void assertConstantStack(QueryParser parser, IntFunction<String> generator) throws Exception {
+        String query = generator.apply(LARGE_SIZE);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread thread = new Thread(null, () -> {
+            try {
+                parseIgnoringBadInput(parser, query);
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        }, "small-stack-parser", SMALL_STACK_SIZE);
+        thread.start();
+        thread.join();
+
+        assertThat(error.get(), is(nullValue()));
+    }
+
+    @Test
+    public void whenParsingLongEqualsRunThenTimeIsLinear() throws Exception {
+        assertLinearTime(simpleParser(), QueryParserPerformanceTest::equalsRun);
+    }
+
+    @Test
+    public void whenParsingLongKeyWithTwoEqualsThenTimeIsLinear() throws Exception {
+        assertLinearTime(simpleParser(), QueryParserPerformanceTest::longKeyWithTwoEquals);
+    }
+
+    @Test
+    public void whenParsingDeepAmpersandChainThenTimeIsLinear() throws Exception {
+        assertLinearTime(simpleParser(), QueryParserPerformanceTest::ampersandChain);
+    }
+
+    @Test
+    public void whenParsingManyPairsThenTimeIsLinear() throws Exception {
+        assertLinearTime(simpleParser(), QueryParserPerformanceTest::pairChain);
+    }
+
+    @Test
+    public void whenParsingManyEncodedSpacesThenTimeIsLinear() throws Exception {
+        assertLinearTime(ignoreWhiteSpaceParser(), QueryParserPerformanceTest::encodedSpaces);
+    }
+
+    @Test
+    public void givenIgnoreWhiteSpaceWhenParsingHugeWhiteSpaceRunThenTimeIsLinear() throws Exception {
+        assertLinearTime(ignoreWhiteSpaceParser(), QueryParserPerformanceTest::whiteSpaceRun);
+    }
+
+    @Test
+    public void whenParsingDeepAmpersandChainThenStackDepthIsConstant() throws Exception {
+        assertConstantStack(simpleParser(), QueryParserPerformanceTest::ampersandChain);
+    }
+
+    @Test
+    public void whenParsingManyPairsThenStackDepthIsConstant() throws Exception {
+        assertConstantStack(simpleParser(), QueryParserPerformanceTest::pairChain);
+    }
+
+    @Test
+    public void whenParsingLongEqualsRunThenStackDepthIsConstant() throws Exception {
+        assertConstantStack(simpleParser(), QueryParserPerformanceTest::equalsRun);
+    }
+
+    @Test
+    public void givenIgnoreWhiteSpaceWhenParsingHugeWhiteSpaceRunThenStackDepthIsConstant() throws Exception {
+        assertConstantStack(ignoreWhiteSpaceParser(), QueryParserPerformanceTest::whiteSpaceRun);
+    }
+
+    @Test
+    public void whenScanningDeepChainThenAllPartsAreReturned() throws Exception {
+        QueryScanner scanner = new QueryScanner(ampersandChain(LARGE_SIZE), Delimiters.QUERY);
+        int parts = 0;
+        while (scanner.next())
+            parts++;
+        assertThat(parts, is(LARGE_SIZE + 1));
+    }
+}
@@ -0,0 +1,255 @@
+package com.github.fatulm.query;
+
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryParserSamplerTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private static String query(int pairs) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < pairs; i++)
+            builder.append(i == 0 ? "" : "&").append("key").append(i).append("=value%20").append(i);
+        return builder.toString();
+    }
+
+    private static List<Integer> lengths(List<QueryParserSampler.Sample> samples) {
+        List<Integer> lengths = new ArrayList<>();
+        for (QueryParserSampler.Sample sample : samples)
+            lengths.add(sample.getInputLength());
+        return lengths;
+    }
+
+    @Test
+    public void givenNoSamplerWhenGetSamplerThenNull() throws Exception {
+        assertThat(QueryParser.builder().build().getSampler(), is(nullValue()));
+    }
+
+    @Test
+    public void whenSamplerIsNullThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("sampler should not be null");
+        QueryParser.builder().sampler(null);
+    }
+
+    @Test
+    public void whenCapacityIsNotPositiveThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("sampler capacity and input length should be positive");
+        new QueryParserSampler(0, 100);
+    }
+
+    @Test
+    public void whenParsingThenLargestInputsAreKept() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(3, 1000);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        int[] pairs = {4, 1, 7, 2, 9, 3, 5};
+        for (int n : pairs)
+            qp.parse(query(n));
+
+        assertThat(lengths(sampler.getLargest()),
+                contains(query(9).length(), query(7).length(), query(5).length()));
+        assertThat(sampler.getSlowest(), hasSize(3));
+    }
+
+    @Test
+    public void whenParsingThenSampleHasPairsFlagsAndStages() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 1000);
+        QueryParser qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)
+                .sampler(sampler)
+                .build();
+
+        qp.parse("a=1&b=&a=1&&c");
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+
+        assertThat(sample.getInput(), is("a=1&b=&a=1&&c"));
+        assertThat(sample.isTruncated(), is(false));
+        assertThat(sample.getPairCount(), is(4));
+        assertThat(sample.getFlags(), is(EnumSet.of(QueryParserFlag.CONVERT_TO_NULL, QueryParserFlag.MERGE_VALUES)));
+        assertThat(sample.getDurationNanos(), greaterThan(0L));
+
+        long max = 0;
+        for (QueryParserSampler.Stage stage : QueryParserSampler.Stage.values()) {
+            assertThat(sample.getStageNanos(stage), greaterThanOrEqualTo(0L));
+            max = Math.max(max, sample.getStageNanos(stage));
+        }
+        assertThat(sample.getStageNanos(sample.getDominantStage()), is(max));
+    }
+
+    @Test
+    public void whenInputIsLongThenItIsTruncated() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 5);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        qp.parseSingle("abc=123&d=4");
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+
+        assertThat(sample.getInput(), is("abc=1"));
+        assertThat(sample.getInputLength(), is(11));
+        assertThat(sample.isTruncated(), is(true));
+    }
+
+    @Test
+    public void whenParsingRangeThenOnlyRangeIsSampled() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 100);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        qp.parseFromUri("/path?a=1&b=2#top");
+
+        assertThat(sampler.getLargest().get(0).getInput(), is("a=1&b=2"));
+        assertThat(sampler.getLargest().get(0).getPairCount(), is(2));
+    }
+
+    @Test
+    public void whenInputChangesAfterParsingThenSampleIsProfiledFromCopy() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 100);
+        QueryParser qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.HARD_IGNORE_WHITE_SPACE, QueryParserFlag.CONVERT_TO_NULL)
+                .sampler(sampler)
+                .build();
+        StringBuilder buffer = new StringBuilder("a=%20&b=2&&c");
+
+        qp.parse(buffer, 0, buffer.length());
+        buffer.setLength(0);
+        buffer.append("x=1");
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+
+        assertThat(sample.getInput(), is("a=%20&b=2&&c"));
+        assertThat(sample.getPairCount(), is(3));
+        assertThat(sample.toString(), containsString("pairCount=3"));
+    }
+
+    @Test
+    public void whenParsingFailsThenFailureIsSampled() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 100);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        try {
+            qp.parse("a=1=2");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+        assertThat(sample.getInput(), is("a=1=2"));
+        assertThat(sample.getFailure(), containsString("query string has bad structure"));
+        assertThat(sample.getPairCount(), is(0));
+        assertThat(sample.toString(), containsString("failure="));
+        assertThat(sampler.getSlowest().get(0), is(sameInstance(sample)));
+    }
+
+    @Test
+    public void whenParsingSingleFailsThenFailureIsSampled() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 100);
+        QueryParser qp = QueryParser.builder()
+                .duplicateKeyPolicy(DuplicateKeyPolicy.REJECT)
+                .sampler(sampler)
+                .build();
+
+        try {
+            qp.parseSingle("a=1&a=2");
+        } catch (IllegalArgumentException ignored) {
+        }
+
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+        assertThat(sample.getFailure(), containsString("query string has duplicate key"));
+        assertThat(sample.getPairCount(), is(2));
+    }
+
+    @Test
+    public void whenParsingSucceedsThenThereIsNoFailure() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 100);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        qp.parse("a=1");
+
+        assertThat(sampler.getLargest().get(0).getFailure(), is(nullValue()));
+    }
+
+    @Test
+    public void whenInputIsTruncatedThenWholePairsOfKeptInputAreProfiled() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(1, 10);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        qp.parse("abc=1&d=4&e=5&f=6");
+        QueryParserSampler.Sample sample = sampler.getLargest().get(0);
+
+        assertThat(sample.getInput(), is("abc=1&d=4&"));
+        assertThat(sample.getInputLength(), is(17));
+        assertThat(sample.getPairCount(), is(2));
+    }
+
+    @Test
+    public void whenClearThenSamplesAreRemoved() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(2, 100);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        qp.parse(query(3));
+        sampler.clear();
+        assertThat(sampler.getLargest(), is(empty()));
+
+        qp.parse(query(1));
+        assertThat(lengths(sampler.getLargest()), contains(query(1).length()));
+    }
+
+    @Test
+    public void whenSlowestThenSortedByDuration() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(4, 100);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        for (int i = 0; i < 1000; i++)
+            qp.parse(query(i % 20));
+
+        List<QueryParserSampler.Sample> slowest = sampler.getSlowest();
+        assertThat(slowest, hasSize(4));
+        for (int i = 1; i < slowest.size(); i++)
+            assertThat(slowest.get(i).getDurationNanos(), lessThanOrEqualTo(slowest.get(i - 1).getDurationNanos()));
+    }
+
+    @Test
+    public void whenParsingConcurrentlyThenLargestInputsAreKept() throws Exception {
+        QueryParserSampler sampler = new QueryParserSampler(5, 10_000);
+        QueryParser qp = QueryParser.builder().sampler(sampler).build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < 200; i += 8)
+                        qp.parse(query(i));
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(lengths(sampler.getLargest()), contains(query(199).length(), query(198).length(),
+                query(197).length(), query(196).length(), query(195).length()));
+        assertThat(sampler.getSlowest(), hasSize(5));
+    }
+}
@@ -13,6 +13,10 @@ import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
 
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -20,9 +24,11 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.*;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings("RedundantThrows")
 @RunWith(Theories.class)
@@ -41,6 +47,29 @@ public class QueryParserTest {
 
     private QueryParser qp;
 
+    /**
+     * @return raw parts of a query range, as the parser scans them
+     */
+    private static List<String> parts(String query, int from, int to) {
+        List<String> parts = new ArrayList<>();
+        QueryScanner scanner = new QueryScanner(query, from, to, Delimiters.QUERY);
+        while (scanner.next())
+            parts.add(query.substring(scanner.partStart(), scanner.partEnd()));
+        return parts;
+    }
+
+    private static List<String> parts(String query) {
+        return parts(query, 0, query.length());
+    }
+
+    private static String singleOrError(QueryParser parser, String query) {
+        try {
+            return parser.parseSingle(query).toString();
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
     @Before
     public void setUp() throws Exception {
         qp = QueryParser.builder().build();
@@ -235,33 +264,13 @@ public class QueryParserTest {
 
     @Test
     public void splitStringTest() throws Exception {
-        List<String> list = TextUtils.stringSplit("a=b=c", '=');
-        List<String> exp = Arrays.asList("a", "b", "c");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit("", '=');
-        exp = Collections.singletonList("");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit("=", '=');
-        exp = Arrays.asList("", "");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit("a==", '=');
-        exp = Arrays.asList("a", "", "");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit(" =a=", '=');
-        exp = Arrays.asList(" ", "a", "");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit("hello", '=');
-        exp = Collections.singletonList("hello");
-        assertThat(list, is(exp));
-
-        list = TextUtils.stringSplit("", '=');
-        exp = Collections.singletonList("");
-        assertThat(list, is(exp));
+        assertThat(parts("a&b&c"), is(Arrays.asList("a", "b", "c")));
+        assertThat(parts(""), is(Collections.singletonList("")));
+        assertThat(parts("&"), is(Arrays.asList("", "")));
+        assertThat(parts("a&&"), is(Arrays.asList("a", "", "")));
+        assertThat(parts(" &a=&"), is(Arrays.asList(" ", "a=", "")));
+        assertThat(parts("hello"), is(Collections.singletonList("hello")));
+        assertThat(parts("x&a=1&b", 2, 5), is(Collections.singletonList("a=1")));
     }
 
     @Test
@@ -375,4 +384,377 @@ public class QueryParserTest {
 
         assertThat(qp.parse("key =value 1&key%20=value%202").get("key "), hasItems("value 1", "value 2"));
     }
+
+    @Test
+    public void givenAQueryParserWithParallelThresholdWhenParsingALargeQueryThenResultIsSameAsSequential()
+            throws Exception {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 100_000; i++)
+            query.append(" key").append(i % 97).append(" = value%20").append(i % 13).append(" &");
+        query.append("&=& &last");
+
+        QueryParserBuilder builder = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID,
+                        QueryParserFlag.IGNORE_WHITE_SPACE,
+                        QueryParserFlag.HARD_IGNORE_WHITE_SPACE,
+                        QueryParserFlag.CONVERT_TO_NULL);
+
+        Map<String, List<String>> sequential = builder.build().parse(query.toString());
+        Map<String, List<String>> parallel = builder.parallelThreshold(1).build().parse(query.toString());
+
+        assertThat(parallel, is(sequential));
+        assertThat(parallel.get("last"), is(Collections.singletonList((String) null)));
+    }
+
+    @Test
+    public void givenAQueryParserWithParallelThresholdWhenParsingALargeQueryThenValueOrderIsKept() throws Exception {
+        qp = QueryParser.builder()
+                .parallelThreshold(1)
+                .build();
+
+        StringBuilder query = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            query.append("key=").append(i).append('&');
+            expected.add(String.valueOf(i));
+        }
+
+        assertThat(qp.parse(query.toString()).get("key"), is(expected));
+    }
+
+    @Test
+    public void givenAQueryParserWithParallelThresholdWhenParsingABadLargeQueryThenThrowsIllegalArgumentException()
+            throws Exception {
+        qp = QueryParser.builder()
+                .parallelThreshold(1)
+                .build();
+
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 100_000; i++)
+            query.append("key=value&");
+        query.append("key=value=value");
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        qp.parse(query.toString());
+    }
+
+    @Test
+    public void splitChunksTest() throws Exception {
+        assertThat(TextUtils.splitChunks("a&b&c&d", "&", 0, 7, 2),
+                is(Arrays.asList(new Pair<>(0, 3), new Pair<>(4, 7))));
+        assertThat(TextUtils.splitChunks("a&b&c&d", "&", 0, 7, 100),
+                is(Collections.singletonList(new Pair<>(0, 7))));
+        assertThat(TextUtils.splitChunks("abcd&", "&", 0, 5, 1),
+                is(Arrays.asList(new Pair<>(0, 4), new Pair<>(5, 5))));
+        assertThat(TextUtils.splitChunks("x&a&b&c", "&", 2, 5, 1),
+                is(Arrays.asList(new Pair<>(2, 3), new Pair<>(4, 5))));
+        assertThat(TextUtils.splitChunks("a;b&c;d", "&;", 0, 7, 1),
+                is(Arrays.asList(new Pair<>(0, 1), new Pair<>(2, 3), new Pair<>(4, 5), new Pair<>(6, 7))));
+    }
+
+    @Test
+    public void whenIteratingPairsThenTheyAreInQueryOrder() throws Exception {
+        List<String> pairs = new ArrayList<>();
+        qp.forEachPair("b=1&a%20&b=2&", (key, value) -> pairs.add(key + ":" + value));
+
+        assertThat(pairs, is(Arrays.asList("b:1", "a :null", "b:2")));
+    }
+
+    @Test
+    public void whenParsingSingleThenFirstValueWinsByDefault() throws Exception {
+        Map<String, String> map = qp.parseSingle("key=value1&other&key=value2");
+        assertThat(map.get("key"), is("value1"));
+        assertThat(map.get("other"), is(nullValue()));
+        assertThat(map.containsKey("other"), is(true));
+        assertThat(map.keySet(), hasSize(2));
+    }
+
+    @Test
+    public void givenLastWinsPolicyWhenParsingSingleThenLastValueWins() throws Exception {
+        qp = QueryParser.builder()
+                .duplicateKeyPolicy(DuplicateKeyPolicy.LAST_WINS)
+                .build();
+
+        assertThat(qp.parseSingle("key=value1&key=value2&key").get("key"), is(nullValue()));
+        assertThat(qp.parseSingle("key=value1&key=value2").get("key"), is("value2"));
+    }
+
+    @Test
+    public void givenRejectPolicyWhenParsingSingleWithDuplicateKeyThenThrowsIllegalArgumentException()
+            throws Exception {
+        qp = QueryParser.builder()
+                .duplicateKeyPolicy(DuplicateKeyPolicy.REJECT)
+                .build();
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has duplicate key");
+        qp.parseSingle("key=value&key=value");
+    }
+
+    @Test
+    public void givenRejectPolicyAndMergeValuesWhenParsingSingleWithEqualValuesThenTheyAreAccepted()
+            throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.MERGE_VALUES)
+                .duplicateKeyPolicy(DuplicateKeyPolicy.REJECT)
+                .build();
+
+        assertThat(qp.parseSingle("key=value&key=value&other").get("key"), is("value"));
+    }
+
+    @Test
+    public void whenParsingSingleThenValuesOfLaterDuplicatesAreNotDecoded() throws Exception {
+        assertThat(qp.parseSingle("key=1&key=%FF&other=%C3%A9").get("key"), is("1"));
+        assertThat(qp.parseSingle("key=1&key=%FF&other=%C3%A9").get("other"), is("\u00e9"));
+    }
+
+    @Test
+    public void givenConvertToNullWhenParsingSingleThenEmptyPairsAreDroppedLikeParse() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL)
+                .build();
+
+        Map<String, String> map = qp.parseSingle("a=1&=&=x&b=");
+        assertThat(map.containsKey(""), is(true));
+        assertThat(map.get(""), is("x"));
+        assertThat(map.get("b"), is(nullValue()));
+        assertThat(map.size(), is(3));
+        assertThat(qp.parseSingle("a=1&=").keySet(), is(qp.parse("a=1&=").keySet()));
+    }
+
+    @Test
+    public void givenSamplerWhenParsingSingleNullThenThrowsNullPointerException() throws Exception {
+        qp = QueryParser.builder()
+                .sampler(new QueryParserSampler(1, 100))
+                .build();
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("query string should not be null");
+        qp.parseSingle(null);
+    }
+
+    @Test
+    public void givenRejectPolicyWhenParsingSingleThenFirstDuplicateKeyFailsBeforeRestIsDecoded()
+            throws Exception {
+        qp = QueryParser.builder()
+                .duplicateKeyPolicy(DuplicateKeyPolicy.REJECT)
+                .build();
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has duplicate key");
+        qp.parseSingle("key=1&key=1&other=%FF");
+    }
+
+    @Test
+    public void givenPrefixCacheOrParallelWhenParsingSingleThenPolicyIsSame() throws Exception {
+        String[] queries = {"", "a", "a&a=1", "a=1&b&a=2", "&&a=&a", "a=1&a=1&b=2", "=1&=2", "a=1&A=2", "a=1&=", "=&b"};
+        for (DuplicateKeyPolicy policy : DuplicateKeyPolicy.values()) {
+            QueryParserBuilder builder = QueryParser.builder()
+                    .addFlags(QueryParserFlag.MERGE_VALUES, QueryParserFlag.CONVERT_TO_NULL)
+                    .duplicateKeyPolicy(policy);
+            QueryParser plain = builder.build();
+            QueryParser cached = builder.prefixCache(100).build();
+            QueryParser parallel = QueryParser.builder()
+                    .addFlags(QueryParserFlag.MERGE_VALUES, QueryParserFlag.CONVERT_TO_NULL)
+                    .duplicateKeyPolicy(policy)
+                    .parallelThreshold(1)
+                    .build();
+
+            for (String query : queries) {
+                String expected = singleOrError(plain, query);
+                assertThat(policy + " " + query, singleOrError(cached, query), is(expected));
+                assertThat(policy + " " + query, singleOrError(parallel, query), is(expected));
+            }
+        }
+    }
+
+    @Test
+    public void whenParsingThenKeysAreInQueryOrder() throws Exception {
+        List<String> keys = new ArrayList<>();
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String key = "key" + (i * 37 % 100);
+            keys.add(key);
+            query.append(i == 0 ? "" : "&").append(key).append("=").append(i);
+        }
+        query.append("&key0=again");
+
+        QueryParser parallel = QueryParser.builder()
+                .parallelThreshold(1)
+                .build();
+        for (QueryParser parser : new QueryParser[]{qp, parallel}) {
+            assertThat(new ArrayList<>(parser.parse(query.toString()).keySet()), is(keys));
+            assertThat(new ArrayList<>(parser.parseSingle(query.toString()).keySet()), is(keys));
+        }
+    }
+
+    @Test
+    public void whenParsingSingleThenResultIsUnmodifiableAndRejectsNullKeys() throws Exception {
+        Map<String, String> map = qp.parseSingle("key=value&=");
+        assertThat(map.get(""), is(""));
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("key can not be null");
+        //noinspection ResultOfMethodCallIgnored
+        map.get(null);
+    }
+
+    @Test
+    public void whenParsingARangeOfACharSequenceThenOnlyRangeIsParsed() throws Exception {
+        StringBuilder builder = new StringBuilder("GET /path?key=value%201&other HTTP/1.1");
+        Map<String, List<String>> map = qp.parse(builder, 10, 29);
+
+        assertThat(map.keySet(), hasItems("key", "other"));
+        assertThat(map.get("key"), is(Collections.singletonList("value 1")));
+        assertThat(qp.parse(CharBuffer.wrap("a=1&b=2"), 4, 7).keySet(), is(Collections.singleton("b")));
+    }
+
+    @Test
+    public void whenParsingARangeThenPreconditionsAreCheckedOnlyInRange() throws Exception {
+        assertThat(qp.parse("x y#key=value", 4, 13).get("key"), hasItem("value"));
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        qp.parse("?a=1=2", 1, 6);
+    }
+
+    @Test
+    public void whenParsingAnOutOfBoundsRangeThenThrowsIndexOutOfBoundsException() throws Exception {
+        ex.expect(IndexOutOfBoundsException.class);
+        qp.parse("key=value", 2, 10);
+    }
+
+    @Test
+    public void whenParsingFromUriThenQueryIsBetweenQuestionMarkAndFragment() throws Exception {
+        assertThat(qp.parseFromUri("/path?key=value&a=b#fragment=x").keySet(), containsInAnyOrder("key", "a"));
+        assertThat(qp.parseFromUri("/path?key=a?b").get("key"), hasItem("a?b"));
+        assertThat(qp.parseFromUri("/path#fragment?key=value").isEmpty(), is(true));
+        assertThat(qp.parseFromUri("/path").isEmpty(), is(true));
+        assertThat(qp.parseFromUri(new StringBuilder("http://host/p?k#")).containsKey("k"), is(true));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenParsingThenKeysDifferingByCaseAreMerged() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build();
+
+        Map<String, List<String>> map = qp.parse("Page=1&q=x&PAGE=2&page=3");
+        assertThat(map.keySet(), contains("Page", "q"));
+        assertThat(map.get("page"), contains("1", "2", "3"));
+        assertThat(map.get("pAgE"), contains("1", "2", "3"));
+        assertThat(map.containsKey("Q"), is(true));
+        assertThat(map.containsKey("pages"), is(false));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenParsingInParallelThenResultIsSameAsSequential() throws Exception {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < 50_000; i++)
+            query.append(i % 2 == 0 ? "Key" : "kEY").append(i % 7).append('=').append(i).append('&');
+
+        Map<String, List<String>> sequential = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build()
+                .parse(query.toString());
+        Map<String, List<String>> parallel = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .parallelThreshold(1024)
+                .build()
+                .parse(query.toString());
+
+        assertThat(parallel, is(sequential));
+        assertThat(parallel.size(), is(7));
+        assertThat(parallel.get("KEY0").size(), is(sequential.get("key0").size()));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysAndMergeValuesWhenParsingSingleThenPolicyIsAppliedAcrossCases()
+            throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS, QueryParserFlag.MERGE_VALUES)
+                .duplicateKeyPolicy(DuplicateKeyPolicy.LAST_WINS)
+                .build();
+
+        assertThat(qp.parseSingle("ID=1&id=2").get("Id"), is("2"));
+        assertThat(qp.parse("a=1&A=1&a=2").get("a"), contains("1", "2"));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenGettingNullKeyThenThrowsNullPointerException() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build();
+
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("key can not be null");
+        qp.parse("a=1").get(null);
+    }
+
+    @Test
+    public void whenParsingPercentEncodedUtf8ThenItIsDecoded() throws Exception {
+        Map<String, List<String>> map = qp.parse("caf%C3%A9=%E2%82%AC%2010&a%26b=%3D%25&emoji=%F0%9F%98%80");
+
+        assertThat(map.get("caf\u00e9"), hasItem("\u20ac 10"));
+        assertThat(map.get("a&b"), hasItem("=%"));
+        assertThat(map.get("emoji"), hasItem("\ud83d\ude00"));
+    }
+
+    @Test
+    public void givenACharsetWhenParsingThenEncodedBytesAreDecodedWithIt() throws Exception {
+        qp = QueryParser.builder()
+                .charset(Charset.forName("windows-1251"))
+                .build();
+        assertThat(qp.parse("name=%CF%F0%E8%E2%E5%F2").get("name"), hasItem("\u041f\u0440\u0438\u0432\u0435\u0442"));
+
+        qp = QueryParser.builder()
+                .charset(StandardCharsets.ISO_8859_1)
+                .build();
+        assertThat(qp.parse("city=K%F6ln").get("city"), hasItem("K\u00f6ln"));
+    }
+
+    @Test
+    public void givenUtf16CharsetWhenParsingThenAsciiBytesAreDecodedWithIt() throws Exception {
+        qp = QueryParser.builder()
+                .charset(StandardCharsets.UTF_16BE)
+                .build();
+        assertThat(qp.parse("a=%00%41%00%42&b=x%00%20y").get("a"), hasItem("AB"));
+        assertThat(qp.parse("b=x%00%20y").get("b"), hasItem("x y"));
+
+        qp = QueryParser.builder()
+                .charset(StandardCharsets.UTF_16)
+                .build();
+        assertThat(qp.parse("a=%00%41").get("a"), hasItem("A"));
+    }
+
+    @Test
+    public void givenUtf16CharsetWhenParsingOddNumberOfBytesThenThrowsIllegalArgumentException() throws Exception {
+        qp = QueryParser.builder()
+                .charset(StandardCharsets.UTF_16BE)
+                .build();
+
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has malformed UTF-16BE characters");
+        qp.parse("a=%41");
+    }
+
+    @Test
+    public void whenParsingMalformedUtf8ThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has malformed UTF-8 characters");
+        qp.parse("a=%C3%28");
+    }
+
+    @Test
+    public void whenParsingBadPercentEncodingThenThrowsIllegalArgumentException() throws Exception {
+        for (String query : new String[]{"a=%", "a=%2", "a=%zz", "%G0=1", "a=1%"}) {
+            try {
+                qp.parse(query);
+                fail(query);
+            } catch (IllegalArgumentException e) {
+                assertThat(e.getMessage(), is("query string has bad encoded characters"));
+            }
+        }
+    }
 }
@@ -0,0 +1,141 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.theories.DataPoints;
+import org.junit.experimental.theories.FromDataPoints;
+import org.junit.experimental.theories.Theories;
+import org.junit.experimental.theories.Theory;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.junit.runners.MethodSorters;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@RunWith(Theories.class)
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryPredicateTest {
+    @DataPoints("Bad Rules")
+    public static String[] BAD_RULES = new String[]
+            {"", "a", "a =", "a in {}", "a in {1", "(a exists", "a exists b exists", "a = \"x", "NOT"};
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder().build();
+    }
+
+    private boolean matches(String rule, String query) {
+        return QueryPredicate.compile(qp, rule).test(query);
+    }
+
+    @Test
+    public void whenTestingEqualsThenAnyValueCanMatch() throws Exception {
+        assertThat(matches("format=json", "format=xml&format=json"), is(true));
+        assertThat(matches("format=json", "format=xml"), is(false));
+        assertThat(matches("format=json", "other=json"), is(false));
+    }
+
+    @Test
+    public void whenTestingExistsThenKeyWithOrWithoutValueMatches() throws Exception {
+        assertThat(matches("debug exists", "debug"), is(true));
+        assertThat(matches("debug exists", "debug="), is(true));
+        assertThat(matches("debug exists", "debugger=1"), is(false));
+    }
+
+    @Test
+    public void whenTestingInThenOneOfValuesMatches() throws Exception {
+        assertThat(matches("v in {2, 3}", "v=3"), is(true));
+        assertThat(matches("v in {2,3}", "v=4"), is(false));
+    }
+
+    @Test
+    public void whenTestingCombinedRuleThenPrecedenceIsRespected() throws Exception {
+        String rule = "format=json AND (debug exists OR v in {2,3})";
+        assertThat(matches(rule, "format=json&v=2"), is(true));
+        assertThat(matches(rule, "format=json&debug"), is(true));
+        assertThat(matches(rule, "format=json&v=1"), is(false));
+        assertThat(matches(rule, "format=xml&debug"), is(false));
+
+        assertThat(matches("a exists OR b exists AND c exists", "a"), is(true));
+        assertThat(matches("not a exists", "b"), is(true));
+        assertThat(matches("NOT NOT a exists", "b"), is(false));
+    }
+
+    @Test
+    public void whenTestingEncodedQueryThenDecodedKeysAndValuesAreCompared() throws Exception {
+        assertThat(matches("\"my key\" = \"a b\"", "my%20key=a%20b"), is(true));
+        assertThat(matches("\"my key\" exists", "my+key=1"), is(false));
+    }
+
+    @Test
+    public void givenFlagsWhenTestingThenValuesAreProcessedLikeParse() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.WHITE_SPACE_IS_VALID,
+                        QueryParserFlag.IGNORE_WHITE_SPACE,
+                        QueryParserFlag.HARD_IGNORE_WHITE_SPACE,
+                        QueryParserFlag.CONVERT_TO_NULL)
+                .build();
+
+        assertThat(matches("key = \"a b\"", " key =  a%20%20b "), is(true));
+        assertThat(matches("key = \"\"", "key="), is(false));
+        assertThat(matches("key exists", "key="), is(true));
+        assertThat(matches("\"\" exists", "="), is(false));
+    }
+
+    @Test
+    public void whenTestingInvalidQueryThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        matches("a exists", "a=1=2");
+    }
+
+    @Test
+    public void whenTestingThenResultIsSameAsParse() throws Exception {
+        String[] queries = {"a=1&b=2", "a&b", "=&a=", "b=1&b=2&a=%201", ""};
+        for (String query : queries) {
+            assertThat(matches("a exists", query), is(qp.parse(query).containsKey("a")));
+            assertThat(matches("\"\" exists", query), is(qp.parse(query).containsKey("")));
+            assertThat(matches("b = 2", query),
+                    is(qp.parse(query).containsKey("b") && qp.parse(query).get("b").contains("2")));
+        }
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenTestingThenKeysAreComparedIgnoringCase() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build();
+
+        assertThat(matches("page exists", "PAGE=1"), is(true));
+        assertThat(matches("Page = 2", "page=1&pAgE=2"), is(true));
+        assertThat(matches("page = 2", "PAGE%20=2"), is(false));
+        assertThat(matches("\"user id\" = x", "User%20ID=x"), is(true));
+        assertThat(matches("page = 1", "PAGE=01"), is(false));
+    }
+
+    @Test
+    public void givenCaseSensitiveKeysWhenTestingThenKeysAreComparedExactly() throws Exception {
+        assertThat(matches("page exists", "PAGE=1"), is(false));
+    }
+
+    @Theory
+    public void whenCompilingBadRuleThenThrowsIllegalArgumentException
+            (@FromDataPoints("Bad Rules") String rule) throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("bad rule");
+        QueryPredicate.compile(qp, rule);
+    }
+}
@@ -0,0 +1,174 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryRewriterTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryParser qp;
+    private QueryRewriter rewriter;
+
+    @Before
+    public void setUp() throws Exception {
+        qp = QueryParser.builder().build();
+        rewriter = QueryRewriter.builder(qp)
+                .removePrefix("utm_")
+                .remove("fbclid")
+                .remove("gclid")
+                .replace("token", "REDACTED")
+                .append("via", "proxy")
+                .build();
+    }
+
+    @Test
+    public void whenRewritingThenTrackingParametersAreRemoved() throws Exception {
+        assertThat(rewriter.rewrite("utm_source=x&q=1&utm_medium=y&fbclid=abc&page=2&gclid"),
+                is("q=1&page=2&via=proxy"));
+    }
+
+    @Test
+    public void whenRewritingThenUntouchedPartsAreKeptAsTheyAre() throws Exception {
+        assertThat(rewriter.rewrite("b=%201&&a=x%20y&"), is("b=%201&&a=x%20y&&via=proxy"));
+    }
+
+    @Test
+    public void whenRewritingThenReplacedValuesKeepTheirPosition() throws Exception {
+        assertThat(rewriter.rewrite("a=1&token=secret&b=2&token"), is("a=1&token=REDACTED&b=2&token=REDACTED&via=proxy"));
+    }
+
+    @Test
+    public void whenRewritingThenKeysAreMatchedAfterDecoding() throws Exception {
+        rewriter = QueryRewriter.builder(qp).remove("my key").build();
+        assertThat(rewriter.rewrite("my%20key=1&other=2"), is("other=2"));
+    }
+
+    @Test
+    public void whenReplacingOrAppendingThenValuesAreEncoded() throws Exception {
+        rewriter = QueryRewriter.builder(qp)
+                .replace("a", "x y&z=w")
+                .append("b c", null)
+                .append("d", "\u00e9/")
+                .build();
+
+        String rewritten = rewriter.rewrite("a=1");
+        assertThat(rewritten, is("a=x%20y%26z%3Dw&b%20c&d=%C3%A9/"));
+        assertThat(qp.parse(rewritten).get("b c").get(0), is((String) null));
+    }
+
+    @Test
+    public void whenRewritingToByteBufferThenAsciiBytesAreWritten() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        rewriter.rewrite("q=1&utm_id=2", buffer);
+        buffer.flip();
+
+        assertThat(StandardCharsets.US_ASCII.decode(buffer).toString(), is("q=1&via=proxy"));
+    }
+
+    @Test
+    public void whenRewritingToStringBuilderThenOutputIsAppended() throws Exception {
+        StringBuilder builder = new StringBuilder("/path?");
+        rewriter.rewrite("q=1", builder);
+
+        assertThat(builder.toString(), is("/path?q=1&via=proxy"));
+    }
+
+    @Test
+    public void whenRewritingInvalidQueryThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("query string has bad structure");
+        rewriter.rewrite("a=1=2");
+    }
+
+    @Test
+    public void whenAddingNullKeyThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("key should not be null");
+        QueryRewriter.builder(qp).remove(null);
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenRewritingThenKeysAreMatchedIgnoringCase() throws Exception {
+        qp = QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build();
+        rewriter = QueryRewriter.builder(qp)
+                .remove("utm_source")
+                .removePrefix("tmp_")
+                .replace("Token", "x")
+                .build();
+
+        assertThat(rewriter.rewrite("UTM_SOURCE=x&q=1&TMP_A=2&token=secret&Utm_Source=y"), is("q=1&token=x"));
+    }
+
+    @Test
+    public void givenCaseSensitiveKeysWhenRewritingThenKeysAreMatchedExactly() throws Exception {
+        rewriter = QueryRewriter.builder(qp)
+                .remove("utm_source")
+                .build();
+
+        assertThat(rewriter.rewrite("UTM_SOURCE=x&utm_source=y"), is("UTM_SOURCE=x"));
+    }
+
+    @Test
+    public void givenParserCharsetWhenEncodingThenItIsUsed() throws Exception {
+        qp = QueryParser.builder()
+                .charset(StandardCharsets.ISO_8859_1)
+                .build();
+        rewriter = QueryRewriter.builder(qp)
+                .append("city", "K\u00f6ln")
+                .build();
+
+        String rewritten = rewriter.rewrite("q=1");
+        assertThat(rewritten, is("q=1&city=K%F6ln"));
+        assertThat(qp.parse(rewritten).get("city").get(0), is("K\u00f6ln"));
+    }
+
+    @Test
+    public void givenCookieDelimitersWhenRewritingThenWhiteSpaceOfRemovedPairsIsDropped() throws Exception {
+        qp = QueryParser.builder()
+                .pairSeparators(';')
+                .trimWhiteSpaceAroundSeparators()
+                .build();
+        rewriter = QueryRewriter.builder(qp)
+                .remove("a")
+                .replace("d", "5")
+                .append("c", "x y")
+                .build();
+
+        assertThat(rewriter.rewrite("a=1; b=2; d=4"), is("b=2; d=5; c=x%20y"));
+        assertThat(rewriter.rewrite(" b=2 ;  e ; a=1;f= 3 "), is("b=2 ;  e; f= 3; c=x%20y"));
+        assertThat(rewriter.rewrite("a=1"), is("c=x%20y"));
+        assertThat(qp.parse(rewriter.rewrite("a=1; b=2")).get("c").get(0), is("x y"));
+    }
+
+    @Test
+    public void givenEmptyQueryWhenRewritingThenOnlyAppendedPairsAreWritten() throws Exception {
+        assertThat(rewriter.rewrite(""), is("via=proxy"));
+        assertThat(QueryRewriter.builder(qp).build().rewrite(""), is(""));
+    }
+
+    @Test
+    public void whenEveryPartIsRemovedThenOnlyAppendedPairsAreWritten() throws Exception {
+        assertThat(rewriter.rewrite("utm_source=x&fbclid=1&gclid"), is("via=proxy"));
+        assertThat(rewriter.rewrite("&utm_source=x"), is("via=proxy"));
+        assertThat(QueryRewriter.builder(qp).remove("a").build().rewrite("a=1&a=2"), is(""));
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.fatulm.query;
+
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class QueryStatsAggregatorTest {
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+    @Rule
+    public ExpectedException ex = ExpectedException.none();
+
+    private QueryStatsAggregator aggregator;
+
+    @Before
+    public void setUp() throws Exception {
+        aggregator = new QueryStatsAggregator(QueryParser.builder().build(), 100, 3);
+    }
+
+    @Test
+    public void whenCreatingWithNullParserThenThrowsNullPointerException() throws Exception {
+        ex.expect(NullPointerException.class);
+        ex.expectMessage("parser should not be null");
+        new QueryStatsAggregator(null, 1, 1);
+    }
+
+    @Test
+    public void whenCreatingWithNonPositiveMaxKeysThenThrowsIllegalArgumentException() throws Exception {
+        ex.expect(IllegalArgumentException.class);
+        ex.expectMessage("maxKeys should be positive");
+        new QueryStatsAggregator(QueryParser.builder().build(), 0, 1);
+    }
+
+    @Test
+    public void whenRecordingQueriesThenKeysAreCounted() throws Exception {
+        aggregator.record("a=1&a=2&b");
+        aggregator.record("a=1");
+
+        QueryStatsAggregator.Snapshot snapshot = aggregator.snapshot();
+        assertThat(snapshot.getQueries(), is(2L));
+        assertThat(snapshot.getKeys().keySet(), containsInAnyOrder("a", "b"));
+
+        QueryStatsAggregator.KeySnapshot a = snapshot.getKeys().get("a");
+        assertThat(a.getOccurrences(), is(3L));
+        assertThat(a.getQueries(), is(2L));
+        assertThat(a.getNullValues(), is(0L));
+        assertThat(a.getDistinctValues(), is(2L));
+
+        QueryStatsAggregator.KeySnapshot b = snapshot.getKeys().get("b");
+        assertThat(b.getNullValues(), is(1L));
+        assertThat(b.getDistinctValues(), is(0L));
+    }
+
+    @Test
+    public void whenRecordingManyValuesThenTopValuesAreMostFrequent() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            aggregator.record("v=frequent&v=" + i);
+            if (i % 2 == 0)
+                aggregator.record("v=common");
+        }
+
+        List<Map.Entry<String, Long>> top = aggregator.snapshot().getKeys().get("v").getTopValues();
+        assertThat(top, hasSize(3));
+        assertThat(top.get(0).getKey(), is("frequent"));
+        assertThat(top.get(1).getKey(), is("common"));
+    }
+
+    @Test
+    public void whenRecordingManyDistinctValuesThenDistinctCountIsEstimated() throws Exception {
+        for (int i = 0; i < 100_000; i++)
+            aggregator.record("id=" + i);
+
+        long distinct = aggregator.snapshot().getKeys().get("id").getDistinctValues();
+        assertThat(distinct, is(both(greaterThan(90_000L)).and(lessThan(110_000L))));
+    }
+
+    @Test
+    public void whenThereAreTooManyKeysThenPairsAreDropped() throws Exception {
+        aggregator = new QueryStatsAggregator(QueryParser.builder().build(), 2, 1);
+        aggregator.record("a=1&b=2&c=3&d=4");
+
+        QueryStatsAggregator.Snapshot snapshot = aggregator.snapshot();
+        assertThat(snapshot.getKeys().keySet(), containsInAnyOrder("a", "b"));
+        assertThat(snapshot.getDroppedPairs(), is(2L));
+    }
+
+    @Test
+    public void whenMergingThenCountsAndSketchesAreAdded() throws Exception {
+        QueryStatsAggregator other = new QueryStatsAggregator(QueryParser.builder().build(), 100, 3);
+        for (int i = 0; i < 1000; i++) {
+            aggregator.record("k=" + i);
+            other.record("k=" + (i + 500));
+        }
+
+        aggregator.merge(other);
+
+        QueryStatsAggregator.KeySnapshot k = aggregator.snapshot().getKeys().get("k");
+        assertThat(aggregator.snapshot().getQueries(), is(2000L));
+        assertThat(k.getOccurrences(), is(2000L));
+        assertThat(k.getDistinctValues(), is(both(greaterThan(1350L)).and(lessThan(1650L))));
+    }
+
+    @Test
+    public void whenRecordingFromManyThreadsThenNothingIsLost() throws Exception {
+        int threads = 8;
+        int queriesPerThread = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++)
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < queriesPerThread; i++)
+                        aggregator.record("a=" + (i % 10) + "&b=" + i);
+                }));
+            for (Future<?> future : futures)
+                future.get();
+        } finally {
+            executor.shutdown();
+        }
+
+        QueryStatsAggregator.Snapshot snapshot = aggregator.snapshot();
+        assertThat(snapshot.getQueries(), is((long) threads * queriesPerThread));
+        assertThat(snapshot.getKeys().get("a").getOccurrences(), is((long) threads * queriesPerThread));
+        assertThat(snapshot.getKeys().get("b").getQueries(), is((long) threads * queriesPerThread));
+    }
+
+    @Test
+    public void givenCaseInsensitiveKeysWhenRecordingThenKeysAreCountedTogether() throws Exception {
+        aggregator = new QueryStatsAggregator(QueryParser.builder()
+                .addFlags(QueryParserFlag.CASE_INSENSITIVE_KEYS)
+                .build(), 100, 3);
+        aggregator.record("Page=1&page=2");
+        aggregator.record("PAGE=1");
+
+        QueryStatsAggregator.Snapshot snapshot = aggregator.snapshot();
+        assertThat(snapshot.getKeys().keySet(), contains("Page"));
+        assertThat(snapshot.getKeys().get("page").getOccurrences(), is(3L));
+        assertThat(snapshot.getKeys().get("page").getQueries(), is(2L));
+    }
+
+    @Test
+    public void givenCaseSensitiveKeysWhenRecordingThenKeysAreCountedSeparately() throws Exception {
+        aggregator.record("Page=1&page=2");
+
+        assertThat(aggregator.snapshot().getKeys().keySet(), containsInAnyOrder("Page", "page"));
+    }
+
+    @Test
+    public void whenParserHasFlagsThenPairsAreProcessedByThem() throws Exception {
+        aggregator = new QueryStatsAggregator(QueryParser.builder()
+                .addFlags(QueryParserFlag.CONVERT_TO_NULL)
+                .build(), 100, 3);
+        aggregator.record("key%20=");
+
+        assertThat(aggregator.snapshot().getKeys().get("key ").getNullValues(), is(1L));
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.fatulm.query;
+
+import org.junit.Assume;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runners.MethodSorters;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs against every version of ScanUtils in the multi release jar,
+ * build sets expected version with a system property.
+ */
+@SuppressWarnings("RedundantThrows")
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class ScanUtilsTest {
+    private static final String EXPECTED_VARIANT_PROPERTY = "com.github.fatulm.query.expectedScanVariant";
+
+    @Rule
+    public Timeout globalTimeout = new Timeout(1, TimeUnit.MINUTES);
+
+    @Test
+    public void whenExpectedVariantIsSetThenItIsUsed() throws Exception {
+        String expected = System.getProperty(EXPECTED_VARIANT_PROPERTY);
+        Assume.assumeTrue(expected != null);
+
+        assertThat(ScanUtils.variant(), is(expected));
+    }
+
+    @Test
+    public void whenCheckingAsciiThenEveryLengthAndPositionIsHandled() throws Exception {
+        for (int length = 0; length <= 70; length++) {
+            byte[] bytes = new byte[length + 2];
+            Arrays.fill(bytes, (byte) 'a');
+            assertThat(ScanUtils.isAscii(bytes, 1, length + 1), is(true));
+
+            for (int i = 1; i <= length; i++) {
+                bytes[i] = (byte) 0x80;
+                assertThat(ScanUtils.isAscii(bytes, 1, length + 1), is(false));
+                bytes[i] = (byte) 0xFF;
+                assertThat(ScanUtils.isAscii(bytes, 1, length + 1), is(false));
+                bytes[i] = 'a';
+            }
+
+            bytes[0] = (byte) 0xC3;
+            bytes[length + 1] = (byte) 0xA9;
+            assertThat(ScanUtils.isAscii(bytes, 1, length + 1), is(true));
+        }
+    }
+
+    @Test
+    public void whenSearchingThenOnlyRangeIsSearched() throws Exception {
+        String str = "a=1&b=2&c=3";
+        for (CharSequence seq : new CharSequence[]{str, new StringBuilder(str)}) {
+            assertThat(ScanUtils.indexOf(seq, '&', 0, seq.length()), is(3));
+            assertThat(ScanUtils.indexOf(seq, '&', 4, seq.length()), is(7));
+            assertThat(ScanUtils.indexOf(seq, '&', 8, seq.length()), is(-1));
+            assertThat(ScanUtils.indexOf(seq, '&', 4, 7), is(-1));
+            assertThat(ScanUtils.indexOf(seq, '=', 3, 3), is(-1));
+            assertThat(ScanUtils.indexOf(seq, '\u00e9', 0, seq.length()), is(-1));
+        }
+        assertThat(ScanUtils.indexOf("x\u00e9&\u0416", '\u0416', 0, 4), is(3));
+
+        // short and long tails after range, separators in tail are not found
+        for (int tail : new int[]{1, 9, 64, 65, 500}) {
+            StringBuilder builder = new StringBuilder("GET /?a=1&b=2");
+            for (int i = 0; i < tail; i++)
+                builder.append('&');
+            for (CharSequence seq : new CharSequence[]{builder.toString(), builder}) {
+                assertThat(ScanUtils.indexOf(seq, '&', 6, 13), is(9));
+                assertThat(ScanUtils.indexOf(seq, '&', 10, 13), is(-1));
+                assertThat(ScanUtils.indexOf(seq, '=', 12, 13), is(-1));
+            }
+        }
+
+        // long ranges, separator at every position of range and right after it
+        for (int tail : new int[]{0, 3, 100}) {
+            for (int position = 0; position <= 40; position++) {
+                char[] chars = new char[45 + tail];
+                Arrays.fill(chars, 'v');
+                chars[2 + position] = '&';
+                String range = new String(chars);
+                for (CharSequence seq : new CharSequence[]{range, new StringBuilder(range)})
+                    assertThat(ScanUtils.indexOf(seq, '&', 2, 42), is(position < 40 ? 2 + position : -1));
+            }
+        }
+    }
+
+    @Test
+    public void whenComparingRangesThenContentAndLengthAreCompared() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        for (int i = 0; i < 64; i++)
+            buffer.put(i, (byte) i);
+
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) (i + 10);
+
+        assertThat(ScanUtils.rangeEquals(buffer, 10, 20, bytes), is(true));
+        assertThat(ScanUtils.rangeEquals(buffer, 11, 20, bytes), is(false));
+        assertThat(ScanUtils.rangeEquals(buffer, 10, 19, bytes), is(false));
+        assertThat(ScanUtils.rangeEquals(buffer, 10, 0, new byte[0]), is(true));
+    }
+
+    @Test
+    public void whenComparingRangesThenEveryLengthOffsetAndOrderIsHandled() throws Exception {
+        for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(96).order(order);
+            for (int i = 0; i < 96; i++)
+                buffer.put(i, (byte) (i * 7));
+
+            for (int offset = 0; offset < 9; offset++) {
+                for (int length = 0; length <= 40; length++) {
+                    byte[] bytes = new byte[length];
+                    for (int i = 0; i < length; i++)
+                        bytes[i] = (byte) ((offset + i) * 7);
+                    assertThat(ScanUtils.rangeEquals(buffer, offset, length, bytes), is(true));
+
+                    for (int i = 0; i < length; i++) {
+                        bytes[i]++;
+                        assertThat(ScanUtils.rangeEquals(buffer, offset, length, bytes), is(false));
+                        bytes[i]--;
+                    }
+                }
+            }
+        }
+    }
+}